@@ -0,0 +1,374 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+// Local control API: HTTP with JSON replies, bound to the loopback interface only so nothing
+// off the machine can drive the player. Each request is handed to the service on the AWT
+// event thread, the same way a button click is. Commands are queued, not awaited; GET
+// /state shows their effect.
+//
+// Loopback alone doesn't keep web pages out: a page can post to 127.0.0.1, or rebind its own
+// name to it. So every request must carry the session's random token as "Authorization:
+// Bearer <token>" (see token() and writeToken()), its Host must be localhost or 127.0.0.1,
+// and requests with an Origin header, which browsers add and scripts don't, are refused.
+// Saved playlists are only those of the user logged into the service.
+//
+//   GET  /state                       what's playing, position, modes
+//   GET  /tracks?offset=0&limit=100   the list as shown; reading near the end of a partly
+//                                     loaded playlist fetches its next page ("complete": false)
+//   GET  /playlists                   the user's saved playlists and which one is open
+//   POST /open?id=N                   opens one of them
+//   POST /play[?row=N]  /pause  /stop  /next  /previous
+//   POST /seek?ms=N  or  /seek?fraction=F
+//   POST /shuffle?on=true  /repeat?on=false  /volume?percent=70
+//   POST /search?q=words              filters the list; an empty q shows everything
+//   POST /queue?path=...              adds files or folders; path may repeat; tracks already
+//                                     in the list, under any path, are skipped
+//   POST /find-moved?path=DIR         points missing tracks at their files in DIR, by content
+class ControlServer {
+    private static final int MAX_LIMIT = 1000;
+    static final Path TOKEN_FILE = Path.of("control.token"); // next to the database
+    private static final Pattern LOCAL_HOST = Pattern.compile("(localhost|127\\.0\\.0\\.1)(:\\d+)?", Pattern.CASE_INSENSITIVE);
+
+    private final PlayerService service;
+    private final HttpServer server;
+    private final String token;
+
+    private static final class Reply {
+        final int status;
+        final String json;
+
+        Reply(int status, String json) {
+            this.status = status;
+            this.json = json;
+        }
+    }
+
+    // Port 0 picks a free one; see port()
+    ControlServer(PlayerService service, int port) throws IOException {
+        this.service = service;
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        token = HexFormat.of().formatHex(secret);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "control-api");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.createContext("/", this::handle);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    // The secret every request must carry; new each time the server is made
+    String token() {
+        return token;
+    }
+
+    // Puts the token in file, readable only by this user where the file system allows, so
+    // scripts run by the same user can pick it up; the file goes when the JVM exits
+    void writeToken(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        try {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(file); // not POSIX; the user's profile directory is private anyway
+        }
+        Files.writeString(file, token + System.lineSeparator());
+        file.toFile().deleteOnExit();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        Reply reply;
+        try {
+            String method = ex.getRequestMethod();
+            Reply refused = refusal(ex);
+            if (refused != null) {
+                reply = refused;
+            } else if (!"GET".equals(method) && !"POST".equals(method)) {
+                reply = error(405, "Use GET or POST");
+            } else {
+                String path = ex.getRequestURI().getPath();
+                Map<String, List<String>> query = parseQuery(ex.getRequestURI().getRawQuery());
+                boolean post = "POST".equals(method);
+                reply = onEdt(() -> dispatch(path, post, query));
+            }
+        } catch (IllegalArgumentException e) {
+            reply = error(400, e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            reply = error(500, String.valueOf(e.getMessage()));
+        }
+        byte[] body = reply.json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(reply.status, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // The error for a request that isn't let in, or null if it is
+    private Reply refusal(HttpExchange ex) {
+        if (ex.getRequestHeaders().containsKey("Origin")) return error(403, "Requests from web pages are not allowed");
+        String host = ex.getRequestHeaders().getFirst("Host");
+        if (host == null || !LOCAL_HOST.matcher(host).matches()) return error(403, "Host must be localhost or 127.0.0.1");
+        String auth = ex.getRequestHeaders().getFirst("Authorization");
+        byte[] expected = ("Bearer " + token).getBytes(StandardCharsets.UTF_8);
+        if (auth == null || !MessageDigest.isEqual(expected, auth.getBytes(StandardCharsets.UTF_8))) {
+            return error(401, "Missing or wrong token");
+        }
+        return null;
+    }
+
+    // EDT
+    private Reply dispatch(String path, boolean post, Map<String, List<String>> q) {
+        if (!post) {
+            switch (path) {
+                case "/state":
+                    return new Reply(200, state());
+                case "/tracks":
+                    return new Reply(200, tracks(intParam(q, "offset", 0), intParam(q, "limit", 100)));
+                case "/playlists":
+                    return playlists();
+                default:
+                    return error(404, "No such resource: GET " + path);
+            }
+        }
+        switch (path) {
+            case "/play":
+                int row = intParam(q, "row", service.snapshot().row);
+                if (row < 0 && !service.tracks().isEmpty()) row = 0;
+                if (row < 0 || row >= service.tracks().size()) return error(400, "No such row: " + row);
+                service.play(row);
+                break;
+            case "/pause":
+                service.togglePause();
+                break;
+            case "/stop":
+                service.stop();
+                break;
+            case "/next":
+                service.next();
+                break;
+            case "/previous":
+                service.previous();
+                break;
+            case "/seek":
+                if (q.containsKey("fraction")) {
+                    service.seek(Math.max(0, Math.min(1, Double.parseDouble(param(q, "fraction")))));
+                } else {
+                    long length = service.lengthMicros();
+                    if (length <= 0) return error(409, "Length unknown; nothing to seek in");
+                    service.seek(Math.max(0, Math.min(1, intParam(q, "ms", 0) * 1000.0 / length)));
+                }
+                break;
+            case "/shuffle":
+                service.setShuffle(Boolean.parseBoolean(param(q, "on")));
+                break;
+            case "/repeat":
+                service.setRepeat(Boolean.parseBoolean(param(q, "on")));
+                break;
+            case "/volume":
+                service.setVolume(Math.max(0, Math.min(100, intParam(q, "percent", 70))));
+                break;
+            case "/search":
+                service.filter(q.containsKey("q") ? param(q, "q") : "");
+                break;
+            case "/queue":
+                return queue(q.getOrDefault("path", List.of()));
+            case "/find-moved":
+                return findMoved(q.getOrDefault("path", List.of()));
+            case "/open":
+                if (service.user() < 0) return error(409, "No user logged in");
+                try {
+                    int id = intParam(q, "id", -1);
+                    if (service.playlists(service.user()).stream().noneMatch(p -> p.id == id)) {
+                        return error(404, "No such playlist: " + id);
+                    }
+                    int count = service.open(id);
+                    return new Reply(200, "{\"ok\":true,\"tracks\":" + count + "}");
+                } catch (SQLException e) {
+                    return error(500, e.getMessage());
+                }
+            default:
+                return error(404, "No such resource: POST " + path);
+        }
+        return new Reply(200, "{\"ok\":true}");
+    }
+
+    private Reply queue(List<String> paths) {
+        if (paths.isEmpty()) return error(400, "Missing path");
+        List<File> files = new ArrayList<>();
+        List<File> folders = new ArrayList<>();
+        for (String p : paths) {
+            File f = new File(p).getAbsoluteFile();
+            if (f.isDirectory()) folders.add(f);
+            else if (f.isFile()) files.add(f);
+            else return error(400, "No such file: " + p);
+        }
+        if (!service.add(files, folders)) return error(409, "An import is already running");
+        return new Reply(200, "{\"ok\":true,\"files\":" + files.size() + ",\"folders\":" + folders.size() + "}");
+    }
+
+    private Reply findMoved(List<String> paths) {
+        if (paths.isEmpty()) return error(400, "Missing path");
+        List<File> folders = new ArrayList<>();
+        for (String p : paths) {
+            File f = new File(p).getAbsoluteFile();
+            if (!f.isDirectory()) return error(400, "No such folder: " + p);
+            folders.add(f);
+        }
+        if (!service.findMoved(folders)) return error(409, "An import is already running");
+        return new Reply(200, "{\"ok\":true,\"folders\":" + folders.size() + "}");
+    }
+
+    private String state() {
+        PlayerCore.Snapshot s = service.snapshot();
+        return "{\"state\":" + quote(s.state.name())
+                + ",\"row\":" + s.row
+                + ",\"file\":" + quote(s.file == null ? null : s.file.getAbsolutePath())
+                + ",\"next\":" + quote(s.next == null ? null : s.next.getAbsolutePath())
+                + ",\"positionMs\":" + service.positionMicros() / 1000
+                + ",\"lengthMs\":" + service.lengthMicros() / 1000
+                + ",\"shuffle\":" + s.shuffle
+                + ",\"repeat\":" + s.repeat
+                + ",\"tracks\":" + service.tracks().size()
+                + ",\"error\":" + quote(s.error) + "}";
+    }
+
+    private String tracks(int offset, int limit) {
+        TrackListModel list = service.tracks();
+        int from = Math.max(0, Math.min(offset, list.size()));
+        int to = Math.min(list.size(), from + Math.max(0, Math.min(limit, MAX_LIMIT)));
+        if (to == list.size()) service.loadMore();
+        StringBuilder sb = new StringBuilder("{\"total\":").append(list.size())
+                .append(",\"complete\":").append(service.isLoaded())
+                .append(",\"offset\":").append(from).append(",\"tracks\":[");
+        for (int i = from; i < to; i++) {
+            File f = list.get(i);
+            TrackInfo info = service.metadata().get(f);
+            if (i > from) sb.append(',');
+            sb.append("{\"row\":").append(i)
+                    .append(",\"path\":").append(quote(f.getAbsolutePath()))
+                    .append(",\"durationMs\":").append(info == null || info.durationMicros < 0 ? -1 : info.durationMicros / 1000)
+                    .append(",\"missing\":").append(service.validator().isMissing(f))
+                    .append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private Reply playlists() {
+        if (service.user() < 0) return error(409, "No user logged in");
+        List<PlaylistStore.Playlist> list;
+        try {
+            list = service.playlists(service.user());
+        } catch (SQLException e) {
+            return error(500, e.getMessage());
+        }
+        StringBuilder sb = new StringBuilder("{\"open\":").append(service.openPlaylist()).append(",\"playlists\":[");
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":").append(list.get(i).id).append(",\"name\":").append(quote(list.get(i).name)).append('}');
+        }
+        return new Reply(200, sb.append("]}").toString());
+    }
+
+    private interface EdtWork {
+        Reply run();
+    }
+
+    private static Reply onEdt(EdtWork work) throws Exception {
+        Reply[] result = new Reply[1];
+        try {
+            SwingUtilities.invokeAndWait(() -> result[0] = work.run());
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+        return result[0];
+    }
+
+    private static Reply error(int status, String message) {
+        return new Reply(status, "{\"error\":" + quote(message) + "}");
+    }
+
+    private static Map<String, List<String>> parseQuery(String raw) {
+        Map<String, List<String>> params = new HashMap<>();
+        if (raw == null || raw.isEmpty()) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+        return params;
+    }
+
+    private static String param(Map<String, List<String>> q, String name) {
+        List<String> values = q.get(name);
+        if (values == null) throw new IllegalArgumentException("Missing " + name);
+        return values.get(0);
+    }
+
+    private static int intParam(Map<String, List<String>> q, String name, int fallback) {
+        if (!q.containsKey(name)) return fallback;
+        try {
+            return Integer.parseInt(param(q, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + name);
+        }
+    }
+
+    private static String quote(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,64 @@
+import javax.sound.sampled.AudioFormat;
+
+// Sums the tail of one track into the start of the next while one fades out and the other
+// fades in. Samples are converted to float in scratch arrays sized once up front, so mixing
+// a buffer allocates nothing. Handles whatever PcmSamples supports.
+final class CrossfadeMixer {
+
+    enum Curve {
+        LINEAR,      // gains add up to 1; dips slightly in the middle for uncorrelated material
+        EQUAL_POWER  // sin/cos: constant loudness through the fade
+    }
+
+    private final float[] incoming;
+    private final float[] outgoing;
+
+    // maxBytes is the largest buffer mix() will be given
+    CrossfadeMixer(int maxBytes) {
+        incoming = new float[maxBytes];
+        outgoing = new float[maxBytes];
+    }
+
+    // Mixes out (the track fading out) into in (the one fading in), in place. The first
+    // frame is pos frames into a fade that lasts length frames.
+    void mix(byte[] in, byte[] out, int bytes, AudioFormat format, long pos, long length, Curve curve) {
+        int channels = format.getChannels();
+        int frames = bytes / format.getFrameSize();
+        int samples = frames * channels;
+        decode(in, incoming, samples, format);
+        decode(out, outgoing, samples, format);
+        for (int f = 0, s = 0; f < frames; f++) {
+            double t = Math.min(1.0, (pos + f + 0.5) / length);
+            float gainIn, gainOut;
+            if (curve == Curve.EQUAL_POWER) {
+                gainIn = (float) Math.sin(t * Math.PI / 2);
+                gainOut = (float) Math.cos(t * Math.PI / 2);
+            } else {
+                gainIn = (float) t;
+                gainOut = 1f - gainIn;
+            }
+            for (int c = 0; c < channels; c++, s++) {
+                incoming[s] = incoming[s] * gainIn + outgoing[s] * gainOut;
+            }
+        }
+        encode(incoming, in, samples, format);
+    }
+
+    private static void decode(byte[] src, float[] dst, int samples, AudioFormat format) {
+        int bytes = format.getSampleSizeInBits() / 8;
+        boolean big = format.isBigEndian();
+        boolean unsigned = PcmSamples.isUnsigned(format);
+        for (int s = 0, i = 0; s < samples; s++, i += bytes) {
+            dst[s] = PcmSamples.get(src, i, bytes, big, unsigned);
+        }
+    }
+
+    private static void encode(float[] src, byte[] dst, int samples, AudioFormat format) {
+        int bytes = format.getSampleSizeInBits() / 8;
+        boolean big = format.isBigEndian();
+        boolean unsigned = PcmSamples.isUnsigned(format);
+        for (int s = 0, i = 0; s < samples; s++, i += bytes) {
+            PcmSamples.put(dst, i, bytes, big, unsigned, src[s]);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+// One long-lived SQLite connection for the whole app (users and playlists live in the same
+// file). The schema is migrated once when the connection is opened, and prepared statements
+// are cached per SQL string instead of being re-parsed on every call.
+// A JDBC connection isn't safe for concurrent use: callers synchronize on the Database.
+final class Database {
+    static final String DEFAULT_URL = "jdbc:sqlite:musicplayer.db";
+    private static final int SCHEMA_VERSION = 8;
+    private static final Histogram STATEMENT_TIME = Metrics.histogram("db.statement");
+    private static final Histogram TRANSACTION_TIME = Metrics.histogram("db.transaction");
+    private static final Metrics.Counter STATEMENT_ERRORS = Metrics.counter("db.errors");
+
+    private static Database instance;
+
+    private final Connection conn;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    interface Work<T> {
+        T run() throws SQLException;
+    }
+
+    static synchronized Database get() throws SQLException {
+        if (instance == null) instance = new Database(DEFAULT_URL);
+        return instance;
+    }
+
+    Database(String url) throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("SQLite JDBC Driver not found!", e);
+        }
+        conn = DriverManager.getConnection(url);
+        try (Statement st = conn.createStatement()) {
+            // WAL lets reads run alongside a write and turns each commit into one append;
+            // NORMAL sync is still crash-safe in WAL mode. Both must be set outside a transaction.
+            st.execute("PRAGMA journal_mode=WAL");
+            st.execute("PRAGMA synchronous=NORMAL");
+        }
+        migrate();
+    }
+
+    // Cached; don't close the returned statement
+    synchronized PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps == null) {
+            ps = timed(conn.prepareStatement(sql));
+            statements.put(sql, ps);
+        }
+        return ps;
+    }
+
+    // The statement with every execute* call timed into db.statement and failures counted
+    private static PreparedStatement timed(PreparedStatement ps) {
+        return (PreparedStatement) Proxy.newProxyInstance(Database.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+                    if (!method.getName().startsWith("execute")) return invoke(ps, method, args);
+                    long start = System.nanoTime();
+                    try {
+                        return invoke(ps, method, args);
+                    } catch (SQLException e) {
+                        STATEMENT_ERRORS.increment();
+                        throw e;
+                    } finally {
+                        STATEMENT_TIME.recordSince(start);
+                    }
+                });
+    }
+
+    private static Object invoke(PreparedStatement ps, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(ps, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Runs work in a single transaction, rolling back if it throws
+    synchronized <T> T inTransaction(Work<T> work) throws SQLException {
+        long start = System.nanoTime();
+        conn.setAutoCommit(false);
+        try {
+            T result = work.run();
+            conn.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+            TRANSACTION_TIME.recordSince(start);
+        }
+    }
+
+    synchronized void close() {
+        try {
+            for (PreparedStatement ps : statements.values()) ps.close();
+            statements.clear();
+            conn.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // ---------- Schema ----------
+    // PRAGMA user_version records how far this file has been migrated.
+    // Each step brings it up one version; add new steps at the end.
+    private void migrate() throws SQLException {
+        int version;
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("PRAGMA user_version")) {
+            version = rs.next() ? rs.getInt(1) : 0;
+        }
+        if (version >= SCHEMA_VERSION) return;
+
+        inTransaction(() -> {
+            try (Statement st = conn.createStatement()) {
+                if (version < 1) {
+                    // What LoginFrame and MusicPlayer used to create on every call
+                    st.execute("CREATE TABLE IF NOT EXISTS users (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "username TEXT UNIQUE," +
+                            "password TEXT)");
+                    st.execute("CREATE TABLE IF NOT EXISTS playlist (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "name TEXT," +
+                            "path TEXT)");
+                    if (!hasColumn("playlist", "user_id")) {
+                        st.execute("ALTER TABLE playlist ADD COLUMN user_id INTEGER");
+                    }
+                }
+                if (version < 2) {
+                    // Explicit playlist order plus indexes for the per-user queries.
+                    // Existing rows keep the order they were inserted in.
+                    st.execute("ALTER TABLE playlist ADD COLUMN position INTEGER");
+                    st.execute("UPDATE playlist SET position = id");
+                    st.execute("CREATE INDEX IF NOT EXISTS idx_playlist_user_position ON playlist (user_id, position)");
+                    st.execute("CREATE INDEX IF NOT EXISTS idx_playlist_user_path ON playlist (user_id, path)");
+                }
+                if (version < 3) {
+                    // Per-file metadata cache; size and mtime tell when an entry is stale
+                    st.execute("CREATE TABLE IF NOT EXISTS track_meta (" +
+                            "path TEXT PRIMARY KEY," +
+                            "size INTEGER," +
+                            "mtime INTEGER," +
+                            "duration_us INTEGER," +
+                            "encoding TEXT," +
+                            "sample_rate REAL," +
+                            "channels INTEGER," +
+                            "bits INTEGER," +
+                            "title TEXT," +
+                            "artist TEXT," +
+                            "album TEXT)");
+                }
+                if (version < 4) {
+                    // Loudness normalization gain, NULL until measured
+                    st.execute("ALTER TABLE track_meta ADD COLUMN gain_db REAL");
+                }
+                if (version < 5) {
+                    // Waveform overviews, kept apart from track_meta so the preload stays small
+                    st.execute("CREATE TABLE IF NOT EXISTS track_waveform (" +
+                            "path TEXT PRIMARY KEY," +
+                            "size INTEGER," +
+                            "mtime INTEGER," +
+                            "summary BLOB)");
+                }
+                if (version < 6) {
+                    // Named playlists. A track is stored once however many playlists hold it,
+                    // and playlist_entry puts it in a playlist at a position. Each user's old
+                    // single list becomes "My Playlist", its positions spaced PlaylistWriter.GAP apart.
+                    st.execute("ALTER TABLE playlist RENAME TO playlist_v5");
+                    st.execute("CREATE TABLE track (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "path TEXT NOT NULL UNIQUE," +
+                            "name TEXT)");
+                    st.execute("CREATE TABLE playlist (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "user_id INTEGER NOT NULL," +
+                            "name TEXT NOT NULL," +
+                            "UNIQUE (user_id, name))");
+                    st.execute("CREATE TABLE playlist_entry (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "playlist_id INTEGER NOT NULL REFERENCES playlist (id)," +
+                            "track_id INTEGER NOT NULL REFERENCES track (id)," +
+                            "position INTEGER NOT NULL)");
+                    st.execute("CREATE INDEX idx_entry_playlist_position ON playlist_entry (playlist_id, position)");
+                    st.execute("CREATE INDEX idx_entry_track ON playlist_entry (track_id)");
+                    st.execute("INSERT OR IGNORE INTO track (path, name) " +
+                            "SELECT path, name FROM playlist_v5 WHERE path IS NOT NULL ORDER BY id");
+                    st.execute("INSERT INTO playlist (user_id, name) " +
+                            "SELECT DISTINCT user_id, '" + PlaylistStore.DEFAULT_NAME + "' FROM playlist_v5 " +
+                            "WHERE user_id IS NOT NULL AND path IS NOT NULL");
+                    st.execute("INSERT INTO playlist_entry (playlist_id, track_id, position) " +
+                            "SELECT p.id, t.id, ROW_NUMBER() OVER (PARTITION BY o.user_id ORDER BY o.position, o.id) * " + PlaylistWriter.GAP + " " +
+                            "FROM playlist_v5 o JOIN playlist p ON p.user_id = o.user_id JOIN track t ON t.path = o.path " +
+                            "ORDER BY o.user_id, o.position, o.id");
+                    st.execute("DROP TABLE playlist_v5");
+                }
+                if (version < 7) {
+                    // Content fingerprints (see Fingerprints), NULL until hashed, with the size
+                    // and mtime they were taken at
+                    st.execute("ALTER TABLE track ADD COLUMN fingerprint TEXT");
+                    st.execute("ALTER TABLE track ADD COLUMN size INTEGER");
+                    st.execute("ALTER TABLE track ADD COLUMN mtime INTEGER");
+                }
+                if (version < 8) {
+                    // SHA-256 of the whole file, which confirms what the fingerprint suggests, and the
+                    // index Fingerprints finds the other paths of a fingerprint by
+                    st.execute("ALTER TABLE track ADD COLUMN digest TEXT");
+                    st.execute("CREATE INDEX IF NOT EXISTS idx_track_fingerprint ON track (fingerprint, size)");
+                }
+                st.execute("PRAGMA user_version = " + SCHEMA_VERSION);
+            }
+            return null;
+        });
+    }
+
+    private boolean hasColumn(String table, String column) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) return true;
+            }
+            return false;
+        }
+    }
+}
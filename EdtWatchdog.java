@@ -0,0 +1,138 @@
+import javax.swing.AbstractButton;
+import javax.swing.JComponent;
+import java.awt.AWTEvent;
+import java.awt.Component;
+import java.awt.event.InvocationEvent;
+import java.io.File;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+// Watches the event TimedEventQueue is dispatching and, when one has held the EDT longer
+// than the threshold, writes the event (what was clicked or which invokeLater) and the EDT's
+// stack to edt-stalls.log. While the stall lasts another stack is taken every threshold, up
+// to MAX_SAMPLES, so a slow loop shows where it spends its time; when it ends, the total.
+// -Dmusicplayer.edt.stallMillis sets the threshold (500 by default) and
+// -Dmusicplayer.edt.stallLog the file ("off" disables the watchdog).
+final class EdtWatchdog {
+    private static final long LOG_LIMIT_BYTES = 2 * 1024 * 1024;
+    private static final int MAX_SAMPLES = 5;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final Metrics.Counter STALLS = Metrics.counter("edt.stalls");
+
+    private final TimedEventQueue queue;
+    private final long thresholdNanos;
+    private final RollingLog log;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    // Watchdog thread only
+    private TimedEventQueue.Dispatch stalled; // the dispatch last reported, until it ends
+    private int samples;
+    private long nextSampleNanos;
+
+    private EdtWatchdog(TimedEventQueue queue, long thresholdMillis, File file) {
+        this.queue = queue;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.log = new RollingLog(file, LOG_LIMIT_BYTES);
+    }
+
+    static void start(TimedEventQueue queue) {
+        String path = System.getProperty("musicplayer.edt.stallLog", "edt-stalls.log");
+        if ("off".equals(path)) return;
+        long threshold = Math.max(10, Long.getLong("musicplayer.edt.stallMillis", 500));
+        EdtWatchdog watchdog = new EdtWatchdog(queue, threshold, new File(path));
+        Thread t = new Thread(() -> watchdog.run(Math.max(5, threshold / 4)), "edt-watchdog");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void run(long pollMillis) {
+        try {
+            while (true) {
+                Thread.sleep(pollMillis);
+                check(System.nanoTime());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void check(long now) {
+        TimedEventQueue.Dispatch d = queue.current();
+        if (stalled != null && d != stalled) {
+            // Within one poll of when it really ended
+            log.append(LocalDateTime.now().format(TIME) + " EDT free after " + Histogram.format(now - stalled.startNanos)
+                    + " (" + describe(stalled.event) + ")" + System.lineSeparator() + System.lineSeparator());
+            stalled = null;
+        }
+        if (d == null || now - d.startNanos < thresholdNanos) return;
+
+        if (stalled == null) {
+            stalled = d;
+            samples = 0;
+            STALLS.increment();
+        } else if (samples >= MAX_SAMPLES || now < nextSampleNanos) {
+            return;
+        }
+        samples++;
+        nextSampleNanos = now + thresholdNanos;
+        // Stack first: formatting the report can take long enough for a short stall to end
+        ThreadInfo info = threads.getThreadInfo(new long[] { d.thread.getId() }, true, false)[0];
+        boolean movedOn = queue.current() != d;
+        StringBuilder sb = new StringBuilder(LocalDateTime.now().format(TIME))
+                .append(samples == 1 ? " EDT stalled " : " EDT still stalled ")
+                .append(Histogram.format(now - d.startNanos))
+                .append(" in ").append(describe(d.event)).append(System.lineSeparator());
+        if (info != null) appendStack(sb, info); // null if that EDT has since been replaced
+        if (movedOn) sb.append("  (the EDT had moved on before the stack was taken)").append(System.lineSeparator());
+        log.append(sb.toString());
+    }
+
+    // The EDT's stack, plus the lock it's waiting for and who holds it, which is usually the answer
+    private static void appendStack(StringBuilder sb, ThreadInfo info) {
+        sb.append("  \"").append(info.getThreadName()).append("\" ").append(info.getThreadState());
+        LockInfo lock = info.getLockInfo();
+        if (lock != null) {
+            sb.append(" on ").append(lock);
+            if (info.getLockOwnerName() != null) sb.append(" held by \"").append(info.getLockOwnerName()).append('"');
+        }
+        sb.append(System.lineSeparator());
+        for (StackTraceElement frame : info.getStackTrace()) {
+            sb.append("    at ").append(frame).append(System.lineSeparator());
+        }
+    }
+
+    // What set the EDT off: the component and input event for a click or key press, the
+    // runnable for an invokeLater
+    static String describe(AWTEvent event) {
+        if (event instanceof InvocationEvent) {
+            // INVOCATION_DEFAULT,runnable=MusicPlayer$$Lambda$42/0x...@1b2c3d,notifier=...
+            String p = event.paramString();
+            int from = p.indexOf("runnable=");
+            int to = from < 0 ? -1 : p.indexOf(',', from);
+            return "invokeLater " + (from < 0 ? p : p.substring(from + 9, to < 0 ? p.length() : to));
+        }
+        String what = event.paramString();
+        int comma = what.indexOf(',');
+        if (comma > 0) what = what.substring(0, comma); // MOUSE_RELEASED, KEY_PRESSED, ...
+        Object source = event.getSource();
+        return what + " on " + (source instanceof Component ? describe((Component) source) : String.valueOf(source));
+    }
+
+    private static String describe(Component c) {
+        String name = c.getClass().getSimpleName();
+        if (name.isEmpty()) name = c.getClass().getName();
+        if (c instanceof AbstractButton && ((AbstractButton) c).getText() != null) {
+            return name + " \"" + ((AbstractButton) c).getText() + "\"";
+        }
+        if (c.getName() != null) return name + " " + c.getName();
+        if (c instanceof JComponent && ((JComponent) c).getToolTipText() != null) {
+            return name + " \"" + ((JComponent) c).getToolTipText() + "\"";
+        }
+        return name;
+    }
+}
@@ -0,0 +1,110 @@
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Checks whether playlist files still exist, off the EDT. A fixed pool bounds how many stat
+// calls are in flight, so a slow network mount isn't flooded. Results are cached for
+// TTL_MS; within that time validate() skips the file. isMissing() answers from the cache
+// only, so the list can mark missing rows while painting. Each stat also tells the
+// metadata cache and the fingerprints the file's size and mtime.
+class FileValidator {
+
+    interface Listener {
+        // Called on the EDT, coalesced, after some files changed state
+        void availabilityChanged();
+    }
+
+    private static final int THREADS = 8;
+    private static final int SLICE = 256;
+    private static final long TTL_MS = 30_000;
+
+    private static final class Check {
+        final boolean exists;
+        final long checkedAt;
+
+        Check(boolean exists, long checkedAt) {
+            this.exists = exists;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    private final MetadataCache metadata;
+    private final Fingerprints fingerprints;
+    private final Listener listener;
+    private final Map<String, Check> checks = new ConcurrentHashMap<>();
+    private final AtomicBoolean firePending = new AtomicBoolean();
+    private final ExecutorService pool;
+
+    FileValidator(MetadataCache metadata, Fingerprints fingerprints, Listener listener) {
+        this.metadata = metadata;
+        this.fingerprints = fingerprints;
+        this.listener = listener;
+        AtomicInteger n = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread t = new Thread(r, "file-check-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Last known state; false until the file has been checked
+    boolean isMissing(File f) {
+        Check c = checks.get(f.getAbsolutePath());
+        return c != null && !c.exists;
+    }
+
+    // Checks every file whose cached result is older than the TTL
+    void validate(Collection<File> files) {
+        List<File> copy = new ArrayList<>(files);
+        for (int i = 0; i < copy.size(); i += SLICE) {
+            List<File> slice = copy.subList(i, Math.min(copy.size(), i + SLICE));
+            pool.execute(() -> check(slice));
+        }
+    }
+
+    // Forgets a file's cached state, e.g. after playback failed to find it
+    void invalidate(File f) {
+        checks.remove(f.getAbsolutePath());
+    }
+
+    private void check(List<File> files) {
+        boolean changed = false;
+        for (File f : files) {
+            String path = f.getAbsolutePath();
+            long now = System.currentTimeMillis();
+            Check old = checks.get(path);
+            if (old != null && now - old.checkedAt < TTL_MS) continue;
+            boolean exists;
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+                exists = true;
+                metadata.fileSeen(f, attrs.size(), attrs.lastModifiedTime().toMillis());
+                fingerprints.fileSeen(f, attrs.size(), attrs.lastModifiedTime().toMillis());
+            } catch (NoSuchFileException e) {
+                exists = false;
+            } catch (IOException | SecurityException e) {
+                exists = f.exists(); // unreadable attributes don't make it missing
+            }
+            checks.put(path, new Check(exists, now));
+            if (old == null ? !exists : old.exists != exists) changed = true;
+        }
+        if (changed && firePending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                firePending.set(false);
+                listener.availabilityChanged();
+            });
+        }
+    }
+}
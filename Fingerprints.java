@@ -0,0 +1,458 @@
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// A content fingerprint per file, so the same audio under two paths is known to be one track
+// and a file that was moved can be found again. The hash covers the size and SAMPLES blocks
+// spread evenly over the file, first and last included (small files are read whole): a few
+// reads per file however long the track, and tags, which sit at either end, still count.
+//
+// A fingerprint only says two files are probably the same, so nothing is treated as the same
+// track on its say-so: a copy that exists is compared byte for byte, and a path that's gone
+// must have had the same full-content digest. Reading whole files is what the fingerprint
+// avoids, so digests are only taken for files whose fingerprint another known track shares,
+// or, with -Dmusicplayer.fingerprint.digestAll=true, for every file once the pool is idle.
+// Without that, a track with no twin that goes missing isn't found again.
+//
+// Fingerprints and digests live in the track table next to the path, with the size and mtime
+// they were taken at. Nothing is loaded up front: the rows of files seen this session are
+// cached as they're looked up, and other paths with a fingerprint are found by querying its
+// index. Like the metadata cache, it hears of every stat through fileSeen() and hashes only
+// files that are new or changed; the hashing runs on a small pool. identify() is for
+// imports, which need the answer before the rows go in.
+class Fingerprints {
+
+    // What identify() learned about one file
+    static final class Match {
+        final File file;
+        final String fingerprint;  // null if the file couldn't be read
+        final List<File> copies;   // other files with the same content that exist, earlier imports included
+        final List<File> movedFrom; // known paths with the same content that are gone
+
+        Match(File file, String fingerprint, List<File> copies, List<File> movedFrom) {
+            this.file = file;
+            this.fingerprint = fingerprint;
+            this.copies = copies;
+            this.movedFrom = movedFrom;
+        }
+    }
+
+    private static final class Known {
+        final String path;
+        final long size;
+        final long lastModified;
+        final String fingerprint;
+        final String digest;  // of the whole file, null until taken
+
+        Known(String path, long size, long lastModified, String fingerprint, String digest) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+            this.digest = digest;
+        }
+
+        boolean isCurrent(long size, long lastModified) {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+
+    private static final class SeenFile {
+        final File file;
+        final long size;
+        final long lastModified;
+
+        SeenFile(File file, long size, long lastModified) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static final int THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private static final int SAMPLES = 8;
+    private static final int BLOCK = 16 * 1024;
+    private static final int SLICE = 64;
+    private static final boolean DIGEST_ALL = Boolean.getBoolean("musicplayer.fingerprint.digestAll");
+    private static final Histogram HASH_TIME = Metrics.histogram("library.fingerprint");
+    private static final Histogram DIGEST_TIME = Metrics.histogram("library.digest");
+
+    private final Map<String, Known> byPath = new ConcurrentHashMap<>(); // rows looked up or hashed
+    private final Set<String> forgotten = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<SeenFile> stale = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Known> undigested = new ConcurrentLinkedQueue<>(); // DIGEST_ALL only
+    private final AtomicInteger draining = new AtomicInteger(); // pool threads working through stale
+    private final ExecutorService pool;
+
+    Fingerprints() {
+        AtomicInteger n = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread t = new Thread(r, "fingerprint-" + n.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    // Tells it a file's current size and mtime (whoever stat'ed it, any thread).
+    // Files that are new or changed since they were hashed get hashed again.
+    void fileSeen(File f, long size, long lastModified) {
+        Known known = byPath.get(f.getAbsolutePath());
+        if (known != null && known.isCurrent(size, lastModified) && (known.digest != null || !DIGEST_ALL)) return;
+        stale.add(new SeenFile(f, size, lastModified));
+        if (claimDrainer()) pool.execute(this::hashStale);
+    }
+
+    // Hashes the files that need it, in parallel, and calls done on the EDT with a Match per
+    // file, in order, once all of them have one
+    void identify(List<File> files, Consumer<List<Match>> done) {
+        List<File> copy = new ArrayList<>(files);
+        Match[] matches = new Match[copy.size()];
+        if (copy.isEmpty()) {
+            SwingUtilities.invokeLater(() -> done.accept(List.of()));
+            return;
+        }
+        AtomicInteger slices = new AtomicInteger((copy.size() + SLICE - 1) / SLICE);
+        for (int i = 0; i < copy.size(); i += SLICE) {
+            int from = i, to = Math.min(copy.size(), i + SLICE);
+            pool.execute(() -> {
+                List<Known> hashed = new ArrayList<>();
+                for (int j = from; j < to; j++) matches[j] = match(copy.get(j), hashed);
+                save(hashed);
+                if (slices.decrementAndGet() == 0) {
+                    addEarlierCopies(matches);
+                    List<Match> result = List.of(matches);
+                    SwingUtilities.invokeLater(() -> done.accept(result));
+                }
+            });
+        }
+    }
+
+    // Drops a path whose track has moved, so it isn't offered as moved again
+    void forget(File f) {
+        forgotten.add(f.getAbsolutePath());
+        byPath.remove(f.getAbsolutePath());
+    }
+
+    // ---------- Pool threads ----------
+
+    private Match match(File f, List<Known> hashed) {
+        String path = f.getAbsolutePath();
+        Known k;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+            k = hash(f, attrs.size(), attrs.lastModifiedTime().toMillis(), hashed);
+        } catch (IOException | SecurityException e) {
+            k = null;
+        }
+        if (k == null) return new Match(f, null, new ArrayList<>(), List.of());
+        List<File> copies = new ArrayList<>(), movedFrom = new ArrayList<>();
+        List<Known> others = withFingerprint(k);
+        for (Known other : others) {
+            if (other.path.equals(path) || forgotten.contains(other.path)) continue;
+            File o = new File(other.path);
+            if (Files.exists(o.toPath())) {
+                if (sameBytes(f, o)) copies.add(o);
+            } else if (Files.notExists(o.toPath())) { // not just unreachable
+                Known gone = other;
+                if (gone.digest == null) continue; // can't be confirmed
+                try {
+                    k = digested(k, hashed);
+                } catch (IOException | SecurityException e) {
+                    break;
+                }
+                if (gone.digest.equals(k.digest)) movedFrom.add(o);
+            }
+        }
+        k = digestTwins(k, others, hashed);
+        Collections.sort(copies); // the same one is picked each time
+        return new Match(f, k.fingerprint, copies, movedFrom);
+    }
+
+    // Files imported together with the same content: each later one lists the earlier ones
+    // as copies, so only one goes in
+    private static void addEarlierCopies(Match[] matches) {
+        Map<String, List<File>> seen = new HashMap<>();
+        for (Match m : matches) {
+            if (m.fingerprint == null) continue;
+            List<File> earlier = seen.computeIfAbsent(m.fingerprint, x -> new ArrayList<>());
+            for (File e : earlier) {
+                if (!m.copies.contains(e) && !e.equals(m.file) && sameBytes(e, m.file)) m.copies.add(e);
+            }
+            earlier.add(m.file);
+        }
+    }
+
+    private static boolean sameBytes(File a, File b) {
+        try {
+            return Files.mismatch(a.toPath(), b.toPath()) == -1;
+        } catch (IOException | SecurityException e) {
+            return false;
+        }
+    }
+
+    // Works through stale a slice at a time: the slice's rows are looked up together, then
+    // whatever isn't current is hashed and saved. Full digests wait until stale is empty.
+    private void hashStale() {
+        List<Known> hashed = new ArrayList<>();
+        while (true) {
+            List<SeenFile> slice = new ArrayList<>(SLICE);
+            for (SeenFile next; slice.size() < SLICE && (next = stale.poll()) != null; ) slice.add(next);
+            if (slice.isEmpty()) {
+                Known k = undigested.poll();
+                if (k != null) {
+                    try {
+                        digested(k, hashed);
+                    } catch (IOException | SecurityException e) {
+                        // unreadable or gone
+                    }
+                    save(hashed);
+                    hashed = new ArrayList<>();
+                    continue;
+                }
+                draining.decrementAndGet();
+                // Something may have been queued after the poll but before the count dropped
+                if (stale.isEmpty() || !claimDrainer()) break;
+                continue;
+            }
+            List<String> paths = new ArrayList<>(slice.size());
+            for (SeenFile next : slice) paths.add(next.file.getAbsolutePath());
+            lookUp(paths);
+            for (SeenFile next : slice) {
+                try {
+                    Known k = hash(next.file, next.size, next.lastModified, hashed);
+                    if (DIGEST_ALL && k.digest == null) undigested.add(k);
+                } catch (IOException | SecurityException e) {
+                    // unreadable or gone; the validator reports that
+                }
+            }
+            save(hashed); // so withFingerprint() finds them, twins in this slice included
+            // Only new content can have gained a twin
+            List<Known> fresh = hashed;
+            hashed = new ArrayList<>();
+            for (Known k : fresh) digestTwins(k, withFingerprint(k), hashed);
+            save(hashed);
+            hashed = new ArrayList<>();
+        }
+    }
+
+    private boolean claimDrainer() {
+        int n;
+        do {
+            n = draining.get();
+            if (n >= THREADS) return false;
+        } while (!draining.compareAndSet(n, n + 1));
+        return true;
+    }
+
+    // The cached entry if it's current, otherwise a new one, added to hashed for saving
+    private Known hash(File f, long size, long lastModified, List<Known> hashed) throws IOException {
+        String path = f.getAbsolutePath();
+        Known known = byPath.get(path);
+        if (known == null) {
+            lookUp(List.of(path));
+            known = byPath.get(path);
+        }
+        if (known != null && known.isCurrent(size, lastModified)) return known;
+        long start = System.nanoTime();
+        Known k = new Known(path, size, lastModified, fingerprint(f, size), null);
+        HASH_TIME.recordSince(start);
+        put(k);
+        hashed.add(k);
+        return k;
+    }
+
+    // If other known tracks share k's fingerprint, k and those still on disk get digests, so
+    // whichever of them goes missing can be confirmed when it turns up. k, digested or not.
+    private Known digestTwins(Known k, List<Known> others, List<Known> hashed) {
+        boolean twins = false;
+        for (Known other : others) {
+            if (other.path.equals(k.path)) continue;
+            twins = true;
+            if (other.digest != null || !Files.exists(Path.of(other.path))) continue;
+            try {
+                digested(other, hashed);
+            } catch (IOException | SecurityException e) {
+                // unreadable; digested if it's seen again
+            }
+        }
+        if (!twins) return k;
+        try {
+            return digested(k, hashed);
+        } catch (IOException | SecurityException e) {
+            return k;
+        }
+    }
+
+    // k with its digest, which is taken now if it hasn't been. Unchanged if the file no longer
+    // has k's size and mtime, since the digest would be of other content.
+    private Known digested(Known k, List<Known> hashed) throws IOException {
+        if (k.digest != null) return k;
+        Known cached = byPath.get(k.path);
+        if (cached != null && cached.digest != null && cached.isCurrent(k.size, k.lastModified)) return cached;
+        BasicFileAttributes attrs = Files.readAttributes(Path.of(k.path), BasicFileAttributes.class);
+        if (!k.isCurrent(attrs.size(), attrs.lastModifiedTime().toMillis())) return k;
+        long start = System.nanoTime();
+        Known d = new Known(k.path, k.size, k.lastModified, k.fingerprint, digest(new File(k.path), k.size));
+        DIGEST_TIME.recordSince(start);
+        put(d);
+        hashed.remove(k);
+        hashed.add(d);
+        return d;
+    }
+
+    static String fingerprint(File f, long size) throws IOException {
+        MessageDigest digest = sha256();
+        ByteBuffer buf = ByteBuffer.allocate(BLOCK);
+        buf.putLong(size).flip();
+        digest.update(buf);
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            if (size <= (long) SAMPLES * BLOCK) {
+                read(ch, 0, size, buf, digest);
+            } else {
+                for (int i = 0; i < SAMPLES; i++) {
+                    read(ch, (size - BLOCK) * i / (SAMPLES - 1), BLOCK, buf, digest);
+                }
+            }
+        }
+        return hex(digest.digest(), 16);
+    }
+
+    // SHA-256 of the whole file
+    static String digest(File f, long size) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            read(ch, 0, size, ByteBuffer.allocate(BLOCK), digest);
+        }
+        return hex(digest.digest(), 32);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has it
+        }
+    }
+
+    private static String hex(byte[] hash, int bytes) {
+        StringBuilder sb = new StringBuilder(bytes * 2);
+        for (int i = 0; i < bytes; i++) sb.append(String.format("%02x", hash[i]));
+        return sb.toString();
+    }
+
+    private static void read(FileChannel ch, long position, long length, ByteBuffer buf,
+                             MessageDigest digest) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), end - position));
+            int n = ch.read(buf, position);
+            if (n < 0) throw new IOException("File shrank while hashing");
+            position += n;
+            buf.flip();
+            digest.update(buf);
+        }
+    }
+
+    private void put(Known k) {
+        byPath.put(k.path, k);
+        forgotten.remove(k.path);
+    }
+
+    // Caches the stored rows of paths that aren't cached yet
+    private void lookUp(List<String> paths) {
+        try {
+            Database db = Database.get();
+            synchronized (db) {
+                PreparedStatement ps = db.prepare("SELECT size, mtime, fingerprint, digest FROM track " +
+                        "WHERE path = ? AND fingerprint IS NOT NULL");
+                for (String path : paths) {
+                    if (byPath.containsKey(path)) continue;
+                    ps.setString(1, path);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            byPath.putIfAbsent(path, new Known(path, rs.getLong(1), rs.getLong(2), rs.getString(3),
+                                    rs.getString(4)));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace(); // hashed again
+        }
+    }
+
+    // Every stored path with k's content as far as the fingerprint can tell, k's own included
+    private List<Known> withFingerprint(Known k) {
+        List<Known> found = new ArrayList<>();
+        try {
+            Database db = Database.get();
+            synchronized (db) {
+                PreparedStatement ps = db.prepare("SELECT path, mtime, digest FROM track " +
+                        "WHERE fingerprint = ? AND size = ?");
+                ps.setString(1, k.fingerprint);
+                ps.setLong(2, k.size);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        found.add(new Known(rs.getString(1), k.size, rs.getLong(2), k.fingerprint, rs.getString(3)));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace(); // then nothing is treated as the same track
+            return List.of();
+        }
+        return found;
+    }
+
+    // On the track row for the path, which is added if the file isn't in any playlist yet
+    private void save(Collection<Known> hashed) {
+        if (hashed.isEmpty()) return;
+        try {
+            Database db = Database.get();
+            db.inTransaction(() -> {
+                PreparedStatement ps = db.prepare("INSERT INTO track (path, name, fingerprint, size, mtime, digest) " +
+                        "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (path) DO UPDATE SET fingerprint = excluded.fingerprint, " +
+                        "size = excluded.size, mtime = excluded.mtime, digest = excluded.digest");
+                for (Known k : hashed) {
+                    ps.setString(1, k.path);
+                    ps.setString(2, new File(k.path).getName());
+                    ps.setString(3, k.fingerprint);
+                    ps.setLong(4, k.size);
+                    ps.setLong(5, k.lastModified);
+                    ps.setString(6, k.digest);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                return null;
+            });
+        } catch (SQLException e) {
+            e.printStackTrace(); // hashed again next run
+        }
+    }
+}
@@ -0,0 +1,61 @@
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+// The player without a window, driven through the local control API (see ControlServer):
+//   java HeadlessPlayer [--port 7878] [--user ID] [file or folder ...]
+// With --user that user's first saved playlist is opened, and edits are saved back to it.
+// The process runs until killed. Requests need the token it writes to control.token.
+class HeadlessPlayer {
+    static final int DEFAULT_PORT = 7878;
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("java.awt.headless") == null) System.setProperty("java.awt.headless", "true");
+        int port = DEFAULT_PORT;
+        int userId = -1;
+        List<File> files = new ArrayList<>();
+        List<File> folders = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--port".equals(args[i]) && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("--user".equals(args[i]) && i + 1 < args.length) {
+                userId = Integer.parseInt(args[++i]);
+            } else {
+                File f = new File(args[i]).getAbsoluteFile();
+                if (f.isDirectory()) folders.add(f);
+                else files.add(f);
+            }
+        }
+        Metrics.start();
+
+        // Open the database and run any schema migration before anything reads it
+        try {
+            Database.get();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        PlayerService[] service = new PlayerService[1];
+        int user = userId;
+        SwingUtilities.invokeAndWait(() -> {
+            service[0] = new PlayerService();
+            if (user >= 0) {
+                try {
+                    service[0].openDefault(user);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            service[0].add(files, folders);
+        });
+
+        ControlServer server = new ControlServer(service[0], port);
+        server.start();
+        server.writeToken(ControlServer.TOKEN_FILE);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "control-api-shutdown"));
+        System.out.println("Control API on http://127.0.0.1:" + server.port() + "/, token in "
+                + ControlServer.TOKEN_FILE.toAbsolutePath());
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency histogram in the HDR style: log-linear buckets, so any value from a nanosecond to
+// minutes lands in a bucket no wider than 1/32 of it (about 3% error) in a fixed 9 KB array.
+// record() is one atomic increment plus two adders, cheap enough for the decoder and the EDT.
+// Values are nanoseconds; reports are in microseconds.
+final class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final long MAX_VALUE = (1L << 40) - 1; // ~18 minutes; longer is clamped
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram(String name) {
+        this.name = name;
+    }
+
+    void record(long nanos) {
+        long v = Math.max(0, Math.min(nanos, MAX_VALUE));
+        counts.incrementAndGet(index(v));
+        sum.add(v);
+        if (v > max.get()) max.accumulateAndGet(v, Math::max);
+    }
+
+    // For the common start = System.nanoTime(); ...; record the elapsed time
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    // Values below SUB get a bucket each; above, each power of two is split into SUB buckets
+    private static int index(long v) {
+        if (v < SUB) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((v >>> shift) & (SUB - 1));
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB) return index;
+        int shift = index / SUB - 1;
+        return (long) (SUB + index % SUB) << shift;
+    }
+
+    private static long upperBound(int index) {
+        return index + 1 < BUCKETS ? lowerBound(index + 1) - 1 : MAX_VALUE;
+    }
+
+    // A copy of the counts as they are now. Taken without stopping writers, so a value being
+    // recorded meanwhile may be in the bucket counts but not yet the sum; good enough for stats.
+    Snapshot snapshot() {
+        long[] c = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            c[i] = counts.get(i);
+            total += c[i];
+        }
+        return new Snapshot(c, total, sum.sum(), max.get());
+    }
+
+    static final class Snapshot {
+        private final long[] counts;
+        final long count;
+        private final long sum;
+        private final long max; // exact for the whole history, bucket-rounded for a difference
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        // What was recorded between earlier and this one
+        Snapshot minus(Snapshot earlier) {
+            long[] c = new long[counts.length];
+            long top = 0;
+            for (int i = 0; i < c.length; i++) {
+                c[i] = counts[i] - earlier.counts[i];
+                if (c[i] > 0) top = Math.min(upperBound(i), max);
+            }
+            return new Snapshot(c, count - earlier.count, sum - earlier.sum, top);
+        }
+
+        // Value at or below which fraction q of the recordings fall, as the bucket's upper end
+        long percentileNanos(double q) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(upperBound(i), max);
+            }
+            return max;
+        }
+
+        long maxNanos() {
+            return max;
+        }
+
+        long meanNanos() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        long sumNanos() {
+            return sum;
+        }
+
+        // n=12 p50=1.2ms p99=40ms p99.9=41ms max=41ms
+        String describe() {
+            return "n=" + count
+                    + " mean=" + format(meanNanos())
+                    + " p50=" + format(percentileNanos(0.50))
+                    + " p99=" + format(percentileNanos(0.99))
+                    + " p99.9=" + format(percentileNanos(0.999))
+                    + " max=" + format(max);
+        }
+    }
+
+    static String format(long nanos) {
+        if (nanos < TimeUnit.MICROSECONDS.toNanos(1)) return nanos + "ns";
+        if (nanos < TimeUnit.MILLISECONDS.toNanos(1)) return String.format("%.1fus", nanos / 1e3);
+        if (nanos < TimeUnit.SECONDS.toNanos(1)) return String.format("%.1fms", nanos / 1e6);
+        return String.format("%.2fs", nanos / 1e9);
+    }
+}
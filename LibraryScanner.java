@@ -0,0 +1,186 @@
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.swing.SwingWorker;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Imports whole folder trees in the background. Each directory is a fork-join task, so
+// sibling folders are listed and their files probed in parallel. Files with an audio
+// extension are only kept if AudioSystem can read their header. Headers go into the
+// metadata cache, and files it already has unchanged aren't probed again. Results reach
+// the EDT in batches through process(); cancel(true) stops the walk.
+class LibraryScanner extends SwingWorker<Integer, File> {
+
+    interface Listener {
+        // All called on the EDT
+        void tracksFound(List<File> batch);
+
+        void scanProgress(int filesSeen, int tracksFound);
+
+        void scanFinished(int tracksFound, boolean cancelled);
+    }
+
+    // Directory listing and header probing mostly wait on the disk, so use more threads
+    // than cores; a NAS share keeps several requests in flight this way
+    private static final int PARALLELISM = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+    private static final long PUBLISH_INTERVAL_MS = 150;
+    private static final int PROBE_SLICE = 32;
+
+    private final List<File> roots;
+    private final Listener listener;
+    private final MetadataCache metadata;
+    private final Set<String> extensions = new HashSet<>();
+    private final ConcurrentLinkedQueue<File> found = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger filesSeen = new AtomicInteger();
+    private final AtomicInteger tracksFound = new AtomicInteger();
+    private ForkJoinPool pool;
+    private int delivered; // EDT only
+
+    LibraryScanner(List<File> roots, MetadataCache metadata, Listener listener) {
+        this.roots = roots;
+        this.metadata = metadata;
+        this.listener = listener;
+        for (AudioFileFormat.Type type : AudioSystem.getAudioFileTypes()) {
+            extensions.add(type.getExtension().toLowerCase(Locale.ROOT));
+        }
+        extensions.add("aiff"); // AIFF reports "aif"
+    }
+
+    @Override
+    protected Integer doInBackground() {
+        pool = new ForkJoinPool(PARALLELISM);
+        try {
+            for (File root : roots) pool.execute(new ScanDirectory(root.toPath()));
+            while (!pool.awaitQuiescence(PUBLISH_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                if (isCancelled()) return tracksFound.get();
+                publishFound();
+            }
+            return tracksFound.get(); // done() hands over whatever is left
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void publishFound() {
+        List<File> batch = drainFound();
+        if (!batch.isEmpty()) publish(batch.toArray(new File[0]));
+    }
+
+    private List<File> drainFound() {
+        List<File> batch = new ArrayList<>();
+        File f;
+        while ((f = found.poll()) != null) batch.add(f);
+        batch.sort(null); // threads finish in any order; keep each batch tidy at least
+        return batch;
+    }
+
+    @Override
+    protected void process(List<File> batch) {
+        if (isCancelled()) return;
+        delivered += batch.size();
+        listener.tracksFound(batch);
+        listener.scanProgress(filesSeen.get(), tracksFound.get());
+    }
+
+    @Override
+    protected void done() {
+        if (!isCancelled()) {
+            List<File> rest = drainFound();
+            if (!rest.isEmpty()) process(rest);
+        }
+        metadata.flush();
+        // After a cancel only the tracks that reached the listener count
+        listener.scanFinished(isCancelled() ? delivered : tracksFound.get(), isCancelled());
+    }
+
+    private final class ScanDirectory extends RecursiveAction {
+        private final Path dir;
+
+        ScanDirectory(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            if (isCancelled()) return;
+            List<ScanDirectory> subdirs = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path p : entries) {
+                    if (Files.isDirectory(p)) subdirs.add(new ScanDirectory(p));
+                    else files.add(p);
+                }
+            } catch (IOException | SecurityException e) {
+                return; // unreadable folder: skip it, keep going elsewhere
+            }
+            for (ScanDirectory sub : subdirs) sub.fork();
+            // Big folders are probed in slices so one album-of-everything folder isn't serial
+            List<ProbeFiles> probes = new ArrayList<>();
+            for (int i = 0; i < files.size(); i += PROBE_SLICE) {
+                probes.add(new ProbeFiles(files.subList(i, Math.min(files.size(), i + PROBE_SLICE))));
+            }
+            invokeAll(probes);
+            for (ScanDirectory sub : subdirs) sub.join();
+        }
+    }
+
+    private final class ProbeFiles extends RecursiveAction {
+        private final List<Path> files;
+
+        ProbeFiles(List<Path> files) {
+            this.files = files;
+        }
+
+        @Override
+        protected void compute() {
+            for (Path p : files) {
+                if (isCancelled()) return;
+                filesSeen.incrementAndGet();
+                if (isAudio(p)) {
+                    found.add(p.toFile().getAbsoluteFile());
+                    tracksFound.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private boolean isAudio(Path p) {
+        String name = p.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || !extensions.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) return false;
+        File file = p.toFile();
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return false;
+        }
+        long size = attrs.size();
+        long mtime = attrs.lastModifiedTime().toMillis();
+        // Unchanged since it was last probed: the cached answer will do
+        TrackInfo known = metadata.get(file);
+        if (known != null && known.isCurrent(size, mtime)) return known.isReadable();
+        AudioFileFormat fileFormat;
+        try {
+            fileFormat = AudioSystem.getAudioFileFormat(file);
+        } catch (UnsupportedAudioFileException | IOException e) {
+            fileFormat = null;
+        }
+        return metadata.remember(file, size, mtime, fileFormat).isReadable();
+    }
+}
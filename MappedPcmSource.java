@@ -0,0 +1,160 @@
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// PcmSource for uncompressed WAV and AIFF. The header is parsed once and the sample data is
+// memory-mapped, so reading is a copy out of the page cache and seeking is just setting an
+// offset. There's no stream or decoder buffer in between, and nothing is allocated per read.
+// Anything else (compressed, float, AIFC, over 2 GB of samples) is left to StreamPcmSource.
+class MappedPcmSource implements PcmSource {
+    private final FileChannel channel;
+    private final MappedByteBuffer data;
+    private final AudioFormat format;
+    private final int frameSize;
+    private final long frameLength;
+    private int pos; // byte offset into data
+
+    private MappedPcmSource(FileChannel channel, long dataOffset, long dataLength, AudioFormat format) throws IOException {
+        this.channel = channel;
+        this.format = format;
+        this.frameSize = format.getFrameSize();
+        long usable = Math.min(dataLength, channel.size() - dataOffset); // truncated files
+        usable -= usable % frameSize;
+        this.data = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, usable);
+        this.frameLength = usable / frameSize;
+    }
+
+    // null if the file isn't plain PCM WAV/AIFF that can be mapped
+    static PcmSource tryOpen(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            PcmSource source = parse(channel);
+            if (source != null) return source;
+        } catch (IOException | RuntimeException e) {
+            // malformed header: let the AudioSystem reader have a go and report the error
+        }
+        channel.close();
+        return null;
+    }
+
+    private static PcmSource parse(FileChannel ch) throws IOException {
+        ByteBuffer head = read(ch, 0, 12, ByteOrder.BIG_ENDIAN);
+        int magic = head.getInt(0);
+        int type = head.getInt(8);
+        if (magic == 0x52494646 && type == 0x57415645) return parseWav(ch);   // "RIFF" .. "WAVE"
+        if (magic == 0x464F524D && type == 0x41494646) return parseAiff(ch);  // "FORM" .. "AIFF"
+        return null;
+    }
+
+    private static PcmSource parseWav(FileChannel ch) throws IOException {
+        AudioFormat format = null;
+        long pos = 12;
+        while (pos + 8 <= ch.size()) {
+            ByteBuffer chunk = read(ch, pos, 8, ByteOrder.LITTLE_ENDIAN);
+            int id = chunk.order(ByteOrder.BIG_ENDIAN).getInt(0);
+            long size = chunk.order(ByteOrder.LITTLE_ENDIAN).getInt(4) & 0xFFFFFFFFL;
+            if (id == 0x666D7420) { // "fmt "
+                ByteBuffer fmt = read(ch, pos + 8, (int) Math.min(size, 40), ByteOrder.LITTLE_ENDIAN);
+                int tag = fmt.getShort(0) & 0xFFFF;
+                int channels = fmt.getShort(2);
+                int rate = fmt.getInt(4);
+                int bits = fmt.getShort(14);
+                if (tag == 0xFFFE && size >= 26) tag = fmt.getShort(24) & 0xFFFF; // extensible: sub-format
+                if (tag != 1 || channels <= 0 || rate <= 0 || bits % 8 != 0 || bits == 0 || bits > 32) return null;
+                // 8-bit WAV is unsigned, wider samples are signed little-endian
+                format = new AudioFormat(bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED,
+                        rate, bits, channels, channels * bits / 8, rate, false);
+            } else if (id == 0x64617461) { // "data"
+                if (format == null) return null;
+                // Streamed WAVs leave the size at 0 or 0xFFFFFFFF: play to the end of the file
+                long length = size == 0 || size == 0xFFFFFFFFL ? ch.size() - pos - 8 : size;
+                if (length > Integer.MAX_VALUE) return null;
+                return new MappedPcmSource(ch, pos + 8, length, format);
+            }
+            pos += 8 + size + (size & 1); // chunks are padded to even sizes
+        }
+        return null;
+    }
+
+    private static PcmSource parseAiff(FileChannel ch) throws IOException {
+        AudioFormat format = null;
+        long frames = 0;
+        long pos = 12;
+        while (pos + 8 <= ch.size()) {
+            ByteBuffer chunk = read(ch, pos, 8, ByteOrder.BIG_ENDIAN);
+            int id = chunk.getInt(0);
+            long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            if (id == 0x434F4D4D) { // "COMM"
+                ByteBuffer comm = read(ch, pos + 8, 18, ByteOrder.BIG_ENDIAN);
+                int channels = comm.getShort(0);
+                frames = comm.getInt(2) & 0xFFFFFFFFL;
+                int bits = comm.getShort(6);
+                double rate = extended(comm, 8);
+                if (channels <= 0 || rate <= 0 || bits <= 0 || bits > 32) return null;
+                int bytes = (bits + 7) / 8; // samples are left-justified in whole bytes
+                format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, (float) rate, bytes * 8,
+                        channels, channels * bytes, (float) rate, true);
+            } else if (id == 0x53534E44) { // "SSND"
+                if (format == null) return null;
+                long offset = read(ch, pos + 8, 4, ByteOrder.BIG_ENDIAN).getInt(0) & 0xFFFFFFFFL;
+                long start = pos + 16 + offset;
+                long length = Math.min(size - 8 - offset, frames * format.getFrameSize());
+                if (length > Integer.MAX_VALUE) return null;
+                return new MappedPcmSource(ch, start, length, format);
+            }
+            pos += 8 + size + (size & 1);
+        }
+        return null;
+    }
+
+    // 80-bit IEEE 754 extended precision, as AIFF stores the sample rate
+    private static double extended(ByteBuffer b, int off) {
+        int exponent = ((b.get(off) & 0x7F) << 8) | (b.get(off + 1) & 0xFF);
+        long mantissa = b.getLong(off + 2);
+        double value = (mantissa >>> 11) * Math.pow(2, exponent - 16383 - 52);
+        return (b.get(off) & 0x80) != 0 ? -value : value;
+    }
+
+    private static ByteBuffer read(FileChannel ch, long pos, int len, ByteOrder order) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(len).order(order);
+        while (b.hasRemaining()) {
+            if (ch.read(b, pos + b.position()) < 0) throw new IOException("Truncated header");
+        }
+        return b;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        int n = Math.min(len - len % frameSize, data.limit() - pos);
+        if (n <= 0) return pos >= data.limit() ? -1 : 0;
+        data.get(pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void seekFrame(long frame) {
+        pos = (int) Math.max(0, Math.min(frame, frameLength) * frameSize);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping itself goes when the buffer is collected; Java has no public unmap
+        channel.close();
+    }
+}
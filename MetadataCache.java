@@ -0,0 +1,294 @@
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Duration, format and tags per file, kept in the track_meta table and mirrored in memory.
+// get() only looks at memory, so the list can show durations without touching the disk.
+// Whoever stats a file reports its size and mtime through fileSeen(), and only files that
+// changed since they were cached are probed again. Probing and database work run on one
+// worker thread; new entries are written in batches.
+class MetadataCache {
+
+    interface Listener {
+        // Called on the EDT with the entries that were loaded or changed
+        void metadataChanged(List<TrackInfo> changed);
+    }
+
+    private static final int BATCH = 1000;
+
+    private final Map<String, TrackInfo> byPath = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<TrackInfo> unsaved = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<SeenFile> stale = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "track-metadata");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile Listener listener;
+
+    private static final class SeenFile {
+        final File file;
+        final long size;
+        final long lastModified;
+
+        SeenFile(File file, long size, long lastModified) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Cached entry, or null; never touches the disk
+    TrackInfo get(File f) {
+        return byPath.get(f.getAbsolutePath());
+    }
+
+    // Reads the whole table into memory
+    void preload() {
+        worker.execute(() -> {
+            List<TrackInfo> loaded = new ArrayList<>();
+            try {
+                Database db = Database.get();
+                synchronized (db) {
+                    PreparedStatement ps = db.prepare("SELECT * FROM track_meta");
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) loaded.add(read(rs));
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return;
+            }
+            for (TrackInfo info : loaded) byPath.putIfAbsent(info.path, info);
+            fire(loaded);
+        });
+    }
+
+    // Tells the cache a file's current size and mtime (whoever stat'ed it, any thread).
+    // Files that are new or changed since they were cached get probed again.
+    void fileSeen(File f, long size, long lastModified) {
+        TrackInfo known = get(f);
+        if (known != null && known.isCurrent(size, lastModified)) return;
+        stale.add(new SeenFile(f, size, lastModified));
+        if (probing.compareAndSet(false, true)) worker.execute(this::probeStale);
+    }
+
+    private void probeStale() {
+        List<TrackInfo> changed = new ArrayList<>();
+        while (true) {
+            SeenFile next = stale.poll();
+            if (next == null) {
+                probing.set(false);
+                // Something may have been queued after the poll but before the flag was cleared
+                if (stale.isEmpty() || !probing.compareAndSet(false, true)) break;
+                continue;
+            }
+            TrackInfo known = get(next.file);
+            if (known != null && known.isCurrent(next.size, next.lastModified)) continue; // queued twice
+            changed.add(probe(next.file, next.size, next.lastModified));
+            if (changed.size() == BATCH) {
+                save();
+                fire(changed);
+                changed = new ArrayList<>();
+            }
+        }
+        save();
+        if (!changed.isEmpty()) fire(changed);
+    }
+
+    // Records a header that was already read elsewhere (the folder scanner); any thread.
+    // Call flush() once done.
+    TrackInfo remember(File f, long size, long lastModified, AudioFileFormat fileFormat) {
+        TrackInfo info = fileFormat == null
+                ? TrackInfo.unreadable(f, size, lastModified)
+                : TrackInfo.of(f, size, lastModified, fileFormat);
+        byPath.put(info.path, info);
+        unsaved.add(info);
+        return info;
+    }
+
+    // Stores a measured normalization gain with the file's entry, probing it first if needed
+    void setGain(File f, float gainDb) {
+        worker.execute(() -> {
+            TrackInfo info = get(f);
+            if (info == null) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+                    info = probe(f, attrs.size(), attrs.lastModifiedTime().toMillis());
+                } catch (IOException | SecurityException e) {
+                    return;
+                }
+            }
+            info = info.withGain(gainDb);
+            byPath.put(info.path, info);
+            unsaved.add(info);
+            save();
+        });
+    }
+
+    // Gives to the loudness and waveform measured for from, whose content it has (it was
+    // moved), so it isn't decoded again
+    void copyMeasurements(File from, File to) {
+        worker.execute(() -> {
+            long size, lastModified;
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(to.toPath(), BasicFileAttributes.class);
+                size = attrs.size();
+                lastModified = attrs.lastModifiedTime().toMillis();
+            } catch (IOException | SecurityException e) {
+                return;
+            }
+            TrackInfo old = get(from);
+            if (old != null && !Float.isNaN(old.gainDb)) {
+                TrackInfo info = get(to);
+                if (info == null || !info.isCurrent(size, lastModified)) info = probe(to, size, lastModified);
+                info = info.withGain(old.gainDb);
+                byPath.put(info.path, info);
+                unsaved.add(info);
+                save();
+            }
+            try {
+                Database db = Database.get();
+                synchronized (db) {
+                    PreparedStatement ps = db.prepare("INSERT OR REPLACE INTO track_waveform (path, size, mtime, summary) " +
+                            "SELECT ?, ?, ?, summary FROM track_waveform WHERE path = ?");
+                    ps.setString(1, to.getAbsolutePath());
+                    ps.setLong(2, size);
+                    ps.setLong(3, lastModified);
+                    ps.setString(4, from.getAbsolutePath());
+                    ps.executeUpdate();
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // Stored waveform for f if it was made from this size and mtime, else null. Reads the
+    // database on the calling thread, so keep it off the EDT.
+    WaveformSummary loadWaveform(File f, long size, long lastModified) {
+        try {
+            Database db = Database.get();
+            synchronized (db) {
+                PreparedStatement ps = db.prepare("SELECT size, mtime, summary FROM track_waveform WHERE path = ?");
+                ps.setString(1, f.getAbsolutePath());
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next() || rs.getLong("size") != size || rs.getLong("mtime") != lastModified) return null;
+                    byte[] data = rs.getBytes("summary");
+                    return data == null ? null : WaveformSummary.fromBytes(data);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    void saveWaveform(File f, long size, long lastModified, WaveformSummary summary) {
+        worker.execute(() -> {
+            try {
+                Database db = Database.get();
+                synchronized (db) {
+                    PreparedStatement ps = db.prepare("INSERT OR REPLACE INTO track_waveform " +
+                            "(path, size, mtime, summary) VALUES (?, ?, ?, ?)");
+                    ps.setString(1, f.getAbsolutePath());
+                    ps.setLong(2, size);
+                    ps.setLong(3, lastModified);
+                    ps.setBytes(4, summary.toBytes());
+                    ps.executeUpdate();
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    void flush() {
+        worker.execute(this::save);
+    }
+
+    private TrackInfo probe(File f, long size, long lastModified) {
+        AudioFileFormat fileFormat;
+        try {
+            fileFormat = AudioSystem.getAudioFileFormat(f);
+        } catch (UnsupportedAudioFileException | IOException e) {
+            fileFormat = null;
+        }
+        return remember(f, size, lastModified, fileFormat);
+    }
+
+    // Worker thread only
+    private void save() {
+        if (unsaved.isEmpty()) return;
+        try {
+            Database db = Database.get();
+            db.inTransaction(() -> {
+                PreparedStatement ps = db.prepare("INSERT OR REPLACE INTO track_meta " +
+                        "(path, size, mtime, duration_us, encoding, sample_rate, channels, bits, title, artist, album, gain_db) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                TrackInfo info;
+                while ((info = unsaved.poll()) != null) {
+                    ps.setString(1, info.path);
+                    ps.setLong(2, info.size);
+                    ps.setLong(3, info.lastModified);
+                    ps.setLong(4, info.durationMicros);
+                    ps.setString(5, info.encoding);
+                    ps.setFloat(6, info.sampleRate);
+                    ps.setInt(7, info.channels);
+                    ps.setInt(8, info.bits);
+                    setText(ps, 9, info.title);
+                    setText(ps, 10, info.artist);
+                    setText(ps, 11, info.album);
+                    if (Float.isNaN(info.gainDb)) ps.setNull(12, Types.REAL);
+                    else ps.setFloat(12, info.gainDb);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                return null;
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void fire(List<TrackInfo> changed) {
+        Listener l = listener;
+        if (l != null) SwingUtilities.invokeLater(() -> l.metadataChanged(changed));
+    }
+
+    private static TrackInfo read(ResultSet rs) throws SQLException {
+        float gain = rs.getFloat("gain_db");
+        if (rs.wasNull()) gain = Float.NaN;
+        return new TrackInfo(rs.getString("path"), rs.getLong("size"), rs.getLong("mtime"),
+                rs.getLong("duration_us"), rs.getString("encoding"), rs.getFloat("sample_rate"),
+                rs.getInt("channels"), rs.getInt("bits"), rs.getString("title"),
+                rs.getString("artist"), rs.getString("album"), gain);
+    }
+
+    private static void setText(PreparedStatement ps, int index, String value) throws SQLException {
+        if (value == null) ps.setNull(index, Types.VARCHAR);
+        else ps.setString(index, value);
+    }
+}
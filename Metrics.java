@@ -0,0 +1,241 @@
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters and latency histograms for the hot paths, so a stutter or a slow save
+// leaves numbers behind instead of just a stack trace. Classes look their metrics up once into
+// static finals; recording is lock-free and always on.
+//
+// start() makes them visible: as the MBean "MusicPlayer:type=Metrics" (jconsole, VisualVM),
+// and as a line per active metric appended to metrics.log every minute, holding only what
+// happened in that minute. -Dmusicplayer.metrics.log=FILE moves the log ("off" disables it),
+// -Dmusicplayer.metrics.interval=SECONDS changes the period.
+//
+//   track.open       loader: engine.open() per track, including the line open
+//   track.open.failed  loads that ended in an error dialog
+//   decode.chunk     decoder: one source read of up to 16 KB
+//   decode.frames    decoder: frames read from sources
+//   audio.underruns  feeder: the line ran dry mid-track
+//   db.statement     one JDBC execute, query or batch
+//   db.errors        statements that threw
+//   db.transaction   Database.inTransaction, commit included
+//   edt.dispatch     one AWT event, i.e. how long the UI was blocked
+//   edt.stalls       dispatches over the watchdog's threshold
+//   library.digest      Fingerprints: reading a whole file to confirm its content
+//   library.duplicates  imported files whose content was already in the list
+//   library.fingerprint Fingerprints: hashing one file
+//   library.relocated   missing tracks found again at a new path by their content
+//   playlist.edits   playlist rows added, removed or moved, as recorded
+//   playlist.flush   PlaylistWriter: one write of the pending edits
+//   playlist.page    PlaylistWriter: one page of the open playlist handed to the list
+final class Metrics {
+    private static final long LOG_LIMIT_BYTES = 1024 * 1024; // then rolled to metrics.log.1
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static boolean started;
+
+    private Metrics() {}
+
+    static final class Counter {
+        final String name;
+        private final LongAdder value = new LongAdder();
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        void increment() {
+            value.increment();
+        }
+
+        void add(long n) {
+            value.add(n);
+        }
+
+        long get() {
+            return value.sum();
+        }
+    }
+
+    static Counter counter(String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, Histogram::new);
+    }
+
+    // Registers the MBean, starts the snapshot log, times the event queue and watches it for
+    // stalls (see EdtWatchdog). Once per process.
+    static synchronized void start() {
+        if (started) return;
+        started = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), new ObjectName("MusicPlayer:type=Metrics"));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        EdtWatchdog.start(TimedEventQueue.install());
+
+        String path = System.getProperty("musicplayer.metrics.log", "metrics.log");
+        if ("off".equals(path)) return;
+        long seconds = Math.max(1, Long.getLong("musicplayer.metrics.interval", 60));
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-log");
+            t.setDaemon(true);
+            return t;
+        });
+        SnapshotLog log = new SnapshotLog(new File(path));
+        timer.scheduleAtFixedRate(log::write, seconds, seconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(log::write, "metrics-log-shutdown"));
+    }
+
+    // Everything since the process started, one metric per line
+    static String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Counter c : new TreeMap<>(counters).values()) {
+            sb.append(c.name).append(' ').append(c.get()).append('\n');
+        }
+        for (Histogram h : new TreeMap<>(histograms).values()) {
+            sb.append(h.name).append(' ').append(h.snapshot().describe()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // ---------- Snapshot log ----------
+
+    // Appends what changed since the previous write. Only the metrics-log thread and the
+    // shutdown hook call write(), hence synchronized.
+    private static final class SnapshotLog {
+        private final RollingLog log;
+        private final Map<String, Long> lastCounts = new TreeMap<>();
+        private final Map<String, Histogram.Snapshot> lastHistograms = new TreeMap<>();
+        private long lastNanos = System.nanoTime();
+
+        SnapshotLog(File file) {
+            log = new RollingLog(file, LOG_LIMIT_BYTES);
+        }
+
+        synchronized void write() {
+            long now = System.nanoTime();
+            double seconds = Math.max(1e-3, (now - lastNanos) / 1e9);
+            lastNanos = now;
+            List<String> lines = new ArrayList<>();
+            for (Counter c : new TreeMap<>(counters).values()) {
+                long value = c.get();
+                Long before = lastCounts.put(c.name, value);
+                long delta = value - (before == null ? 0 : before);
+                if (delta != 0) lines.add(String.format("%-16s +%d (%.1f/s)", c.name, delta, delta / seconds));
+            }
+            for (Histogram h : new TreeMap<>(histograms).values()) {
+                Histogram.Snapshot current = h.snapshot();
+                Histogram.Snapshot before = lastHistograms.put(h.name, current);
+                Histogram.Snapshot delta = before == null ? current : current.minus(before);
+                if (delta.count > 0) lines.add(String.format("%-16s %s", h.name, delta.describe()));
+            }
+            if (lines.isEmpty()) return;
+
+            StringBuilder sb = new StringBuilder(LocalDateTime.now().format(TIME)).append(String.format(" (%.0fs)%n", seconds));
+            for (String line : lines) sb.append("  ").append(line).append(System.lineSeparator());
+            log.append(sb.toString());
+        }
+    }
+
+    // ---------- JMX ----------
+
+    // One read-only attribute per counter, and count/mean/p50/p99/p99.9/max (in microseconds)
+    // per histogram, all since the process started. The "report" operation returns the lot as text.
+    private static final class MBean implements DynamicMBean {
+        private static final String[] STATS = { "count", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros" };
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Counter c = counters.get(attribute);
+            if (c != null) return c.get();
+            int dot = attribute.lastIndexOf('.');
+            Histogram h = dot < 0 ? null : histograms.get(attribute.substring(0, dot));
+            if (h == null) throw new AttributeNotFoundException(attribute);
+            Histogram.Snapshot s = h.snapshot();
+            switch (attribute.substring(dot + 1)) {
+                case "count": return s.count;
+                case "meanMicros": return s.meanNanos() / 1000;
+                case "p50Micros": return s.percentileNanos(0.50) / 1000;
+                case "p99Micros": return s.percentileNanos(0.99) / 1000;
+                case "p999Micros": return s.percentileNanos(0.999) / 1000;
+                case "maxMicros": return s.maxNanos() / 1000;
+                default: throw new AttributeNotFoundException(attribute);
+            }
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String name : attributes) {
+                try {
+                    list.add(new Attribute(name, getAttribute(name)));
+                } catch (AttributeNotFoundException e) {
+                    // Left out, as the DynamicMBean contract asks
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if ("report".equals(actionName)) return report();
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        // Rebuilt on every call, so metrics registered later show up
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : new TreeMap<>(counters).keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", "Count since start", true, false, false));
+            }
+            for (String name : new TreeMap<>(histograms).keySet()) {
+                for (String stat : STATS) {
+                    attributes.add(new MBeanAttributeInfo(name + "." + stat, "long", stat + " since start", true, false, false));
+                }
+            }
+            MBeanOperationInfo report = new MBeanOperationInfo("report", "Every metric as text",
+                    new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO);
+            return new MBeanInfo(getClass().getName(), "Music player metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] { report }, null);
+        }
+    }
+}
@@ -1,10 +1,5 @@
 
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.Statement;
 import java.sql.SQLException;
 
 import javax.sound.sampled.*;
@@ -13,7 +8,8 @@ import javax.swing.event.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.List;
 
 
 // -------------------- LOGIN FRAME --------------------
@@ -73,7 +69,7 @@ class LoginFrame extends JFrame {
         passwordField.addActionListener(e -> login());
     }
     // ----------------- Password Hashing -----------------
-    private String hashPassword(String password) {
+    static String hashPassword(String password) {
         try {
             java.security.MessageDigest md = java.security.MessageDigest.getInstance("SHA-256");
             byte[] hash = md.digest(password.getBytes());
@@ -85,19 +81,6 @@ class LoginFrame extends JFrame {
         }
     }
 
-    private Connection connectDB() throws SQLException {
-        return DriverManager.getConnection("jdbc:sqlite:musicplayer.db");
-    }
-
-    private void ensureUsersTable() throws SQLException {
-        try (Connection conn = connectDB(); Statement st = conn.createStatement()) {
-            st.execute("CREATE TABLE IF NOT EXISTS users (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    "username TEXT UNIQUE," +
-                    "password TEXT)");
-        }
-    }
-
     private void login() {
         String user = usernameField.getText().trim();
         String pass = new String(passwordField.getPassword());
@@ -107,21 +90,13 @@ class LoginFrame extends JFrame {
             return;
         }
         try {
-            ensureUsersTable();
-            try (Connection conn = connectDB();
-                 PreparedStatement ps = conn.prepareStatement(
-                         "SELECT id FROM users WHERE username=? AND password=?")) {
-                ps.setString(1, user);
-                ps.setString(2, hashPassword(pass));
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    JOptionPane.showMessageDialog(this, "✅ Login successful!");
-                    this.dispose();
-                    int userId = rs.getInt("id");
-                    SwingUtilities.invokeLater(() -> new MusicPlayer(userId).setVisible(true));
-                } else {
-                    JOptionPane.showMessageDialog(this, "❌ Invalid username or password.");
-                }
+            int userId = new UserStore(Database.get()).findUser(user, hashPassword(pass));
+            if (userId >= 0) {
+                JOptionPane.showMessageDialog(this, "✅ Login successful!");
+                this.dispose();
+                SwingUtilities.invokeLater(() -> new MusicPlayer(userId).setVisible(true));
+            } else {
+                JOptionPane.showMessageDialog(this, "❌ Invalid username or password.");
             }
         } catch (SQLException ex) {
             JOptionPane.showMessageDialog(this, "DB Error: " + ex.getMessage());
@@ -137,15 +112,8 @@ class LoginFrame extends JFrame {
             return;
         }
         try {
-            ensureUsersTable();
-            try (Connection conn = connectDB();
-                 PreparedStatement ps = conn.prepareStatement(
-                         "INSERT INTO users (username, password) VALUES (?, ?)")) {
-                ps.setString(1, user);
-                ps.setString(2, hashPassword(pass));
-                ps.executeUpdate();
-                JOptionPane.showMessageDialog(this, "🎉 Registered! You can log in now.");
-            }
+            new UserStore(Database.get()).register(user, hashPassword(pass));
+            JOptionPane.showMessageDialog(this, "🎉 Registered! You can log in now.");
         } catch (SQLException ex) {
             if (ex.getMessage().contains("UNIQUE")) {
                 JOptionPane.showMessageDialog(this, "⚠ Username already exists.");
@@ -158,8 +126,11 @@ class LoginFrame extends JFrame {
 // -------------------- MUSIC PLAYER --------------------
 public class MusicPlayer extends JFrame {
 
+    // Playback, library and persistence; this frame is one client of it
+    private final PlayerService service = new PlayerService();
+
     // UI
-    private DefaultListModel<File> playlistModel = new DefaultListModel<>();
+    private TrackListModel playlistModel = service.tracks();
     private JList<File> playlist = new JList<>(playlistModel);
     private JTextField searchField = new JTextField(15);
     private JButton resetBtn  = new JButton("🔄");
@@ -176,26 +147,35 @@ public class MusicPlayer extends JFrame {
     private JButton saveBtn   = new JButton("💾");
     private JButton loadBtn   = new JButton("⏏");
 
+    // Saved playlists
+    private JComboBox<PlaylistStore.Playlist> playlistBox = new JComboBox<>();
+    private JButton newPlaylistBtn = new JButton("New…");
+    private JButton renamePlaylistBtn = new JButton("Rename…");
+    private JButton deletePlaylistBtn = new JButton("Delete");
+    private JButton findMovedBtn = new JButton("Find Moved…");
+    private boolean refillingPlaylists; // playlistBox is being refilled, not chosen from
+
 
 
     private JSlider volumeSlider = new JSlider(0, 100, 70);
+    private JSpinner crossfadeSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 12, 1));
+    private JCheckBox normalizeBox = new JCheckBox("Normalize", true);
 
     // New UI for song info
     private JLabel songLabel = new JLabel("No song playing");
-    private JLabel timeLabel = new JLabel("00:00 / 00:00");
-    private JProgressBar progressBar = new JProgressBar(0, 1000);
-    private javax.swing.Timer progressTimer; // Swing Timer
+    private TimeLabel timeLabel = new TimeLabel();
+    private final WaveformSeekBar seekBar = new WaveformSeekBar(this::seekTo);
+
+    // Folder import status
+    private JLabel scanLabel = new JLabel(" ");
+    private JButton cancelScanBtn = new JButton("✖");
+    private JLabel totalsLabel = new JLabel(" ");
+    private javax.swing.Timer totalsTimer;
 
 
     // Playback state
-    private Clip clip;
-    private boolean isPaused = false;
-    private long pauseMicroseconds = 0;
-    private int currentIndex = -1;
-    private boolean isRepeat = false;
-    private Random random = new Random();
-    private FloatControl gainControl = null;
-    private DefaultListModel<File> originalPlaylist = new DefaultListModel<>();
+    private PlayerCore.Snapshot shown = service.snapshot(); // what the UI currently shows
+    private final PositionClock clock = new PositionClock(service::positionMicros, service::lengthMicros);
     private int storedVolume = 70;
 
     private int currentUserId;
@@ -203,47 +183,15 @@ public class MusicPlayer extends JFrame {
     public MusicPlayer(int userId) {
         this(); // call default constructor
         this.currentUserId = userId;
-    }
-
-    private Connection connectDB() {
-        try {
-            Class.forName("org.sqlite.JDBC");
-        } catch (ClassNotFoundException e) {
-            JOptionPane.showMessageDialog(this, "SQLite JDBC Driver not found!");
-            e.printStackTrace();
-            return null;
-        }
-
+        // The list is the user's saved playlist; edits are saved in the background from here on
         try {
-            String url = "jdbc:sqlite:musicplayer.db";
-            Connection conn = DriverManager.getConnection(url);
-
-            // Ensure playlist table exists
-            String createTableSQL = "CREATE TABLE IF NOT EXISTS playlist (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    "name TEXT," +
-                    "path TEXT)";
-            Statement stmt = conn.createStatement();
-            stmt.execute(createTableSQL);
-
-            // ✅ Add user_id column if it doesn't exist
-            try {
-                stmt.execute("ALTER TABLE playlist ADD COLUMN user_id INTEGER");
-            } catch (SQLException ignored) {
-                // Column already exists — ignore
-            }
-
-            stmt.close();
-            return conn;
-        } catch (SQLException e) {
-            JOptionPane.showMessageDialog(this, "Failed to connect to database: " + e.getMessage());
-            e.printStackTrace();
-            return null;
+            showPlaylists(service.openDefault(userId).id);
+        } catch (SQLException ex) {
+            JOptionPane.showMessageDialog(this, "DB Error: " + ex.getMessage());
+            ex.printStackTrace();
         }
     }
 
-
-
     public MusicPlayer() {
         super("Music Player");
         setDefaultCloseOperation(EXIT_ON_CLOSE);
@@ -253,15 +201,9 @@ public class MusicPlayer extends JFrame {
 
         // Playlist area
         playlist.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-        playlist.setCellRenderer(new DefaultListCellRenderer() {
-            @Override
-            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
-                                                          boolean isSelected, boolean cellHasFocus) {
-                String name = (value instanceof File) ? ((File) value).getName() : String.valueOf(value);
-                super.getListCellRendererComponent(list, name, index, isSelected, cellHasFocus);
-                return this;
-            }
-        });
+        // Fixed row height: JList doesn't have to measure every row of a big playlist
+        playlist.setFixedCellHeight(playlist.getFontMetrics(playlist.getFont()).getHeight() + 4);
+        playlist.setCellRenderer(new TrackCellRenderer(service.metadata(), service.validator()));
         resetBtn.setToolTipText("Reset Playlist");
         searchBtn.setToolTipText("Search Songs");
         playBtn.setToolTipText("Play");
@@ -274,11 +216,28 @@ public class MusicPlayer extends JFrame {
         addBtn.setToolTipText("Add Songs");
         removeBtn.setToolTipText("Remove Song");
         saveBtn.setToolTipText("Save Playlist");
-        loadBtn.setToolTipText("Load Playlist");
+        loadBtn.setToolTipText("Reload Playlist");
+        playlistBox.setToolTipText("Open a saved playlist");
+        findMovedBtn.setToolTipText("Look in a folder for songs whose files were moved");
 
 
         JPanel centerWrapper = new JPanel(new BorderLayout());
-        centerWrapper.add(new JScrollPane(playlist), BorderLayout.CENTER);
+        JScrollPane listScroll = new JScrollPane(playlist);
+        centerWrapper.add(listScroll, BorderLayout.CENTER);
+        // Long playlists arrive a page at a time; ask for the next one a screen before the end
+        BoundedRangeModel scroll = listScroll.getVerticalScrollBar().getModel();
+        scroll.addChangeListener(e -> {
+            if (scroll.getValue() + 2 * scroll.getExtent() >= scroll.getMaximum()) service.loadMore();
+        });
+        JPanel scanPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        scanPanel.add(scanLabel);
+        scanPanel.add(cancelScanBtn);
+        cancelScanBtn.setToolTipText("Cancel Import");
+        cancelScanBtn.setVisible(false);
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.add(scanPanel, BorderLayout.WEST);
+        statusPanel.add(totalsLabel, BorderLayout.EAST);
+        centerWrapper.add(statusPanel, BorderLayout.SOUTH);
         add(centerWrapper, BorderLayout.CENTER);
         JPanel topPanel = new JPanel(new BorderLayout());
 
@@ -293,6 +252,11 @@ public class MusicPlayer extends JFrame {
         JPanel volPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         volPanel.add(new JLabel("Volume"));
         volPanel.add(volumeSlider);
+        volPanel.add(new JLabel("Crossfade (s)"));
+        volPanel.add(crossfadeSpinner);
+        volPanel.add(normalizeBox);
+        normalizeBox.setOpaque(false);
+        normalizeBox.setToolTipText("Play every track at the same loudness (measured in the background)");
         topPanel.add(volPanel, BorderLayout.WEST);
 
 // --- Info panel for song + time ---
@@ -302,19 +266,32 @@ public class MusicPlayer extends JFrame {
         topPanel.add(infoPanel, BorderLayout.CENTER);
 
 // --- Add search panel below topPanel ---
+        JPanel playlistPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        playlistPanel.add(new JLabel("Playlist:"));
+        playlistPanel.add(playlistBox);
+        playlistPanel.add(newPlaylistBtn);
+        playlistPanel.add(renamePlaylistBtn);
+        playlistPanel.add(deletePlaylistBtn);
+        playlistPanel.add(findMovedBtn);
+        JPanel searchRow = new JPanel(new BorderLayout());
+        searchRow.add(playlistPanel, BorderLayout.WEST);
+        searchRow.add(searchPanel, BorderLayout.EAST);
+
         JPanel northWrapper = new JPanel(new BorderLayout());
         northWrapper.add(topPanel, BorderLayout.CENTER);
-        northWrapper.add(searchPanel, BorderLayout.SOUTH);
+        northWrapper.add(searchRow, BorderLayout.SOUTH);
 
 // Add to main frame
         add(northWrapper, BorderLayout.NORTH);
 
 
 
-        // Progress bar
-        progressBar.setValue(0);
-        progressBar.setStringPainted(false);
-        topPanel.add(progressBar, BorderLayout.SOUTH);
+        // Waveform seek bar
+        topPanel.add(seekBar, BorderLayout.SOUTH);
+
+        // Smooth progress; the time text only changes once a second anyway
+        clock.subscribe(60, seekBar::setPosition);
+        clock.subscribe(10, timeLabel::setTime);
 
 
 
@@ -342,72 +319,140 @@ public class MusicPlayer extends JFrame {
 
         playlist.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         addBtn.addActionListener(e -> addSongs());
+        cancelScanBtn.addActionListener(e -> service.cancelImport());
         playBtn.addActionListener(e -> playSelectedOrCurrent());
         pauseBtn.addActionListener(e -> togglePause());
         stopBtn.addActionListener(e -> stopSong());
         nextBtn.addActionListener(e -> nextSong());
         prevBtn.addActionListener(e -> prevSong());
-        shuffleBtn.addActionListener(e -> shuffleAndPlay());
+        shuffleBtn.addActionListener(e -> toggleShuffle());
         repeatBtn.addActionListener(e -> toggleRepeat());
         removeBtn.addActionListener(e -> removeSelectedSongs());
         saveBtn.addActionListener(e -> savePlaylist());
         loadBtn.addActionListener(e -> loadPlaylist());
+        playlistBox.addActionListener(e -> {
+            if (!refillingPlaylists) openSelectedPlaylist();
+        });
+        newPlaylistBtn.addActionListener(e -> newPlaylist());
+        renamePlaylistBtn.addActionListener(e -> renamePlaylist());
+        deletePlaylistBtn.addActionListener(e -> deletePlaylist());
+        findMovedBtn.addActionListener(e -> findMovedSongs());
         searchBtn.addActionListener(e -> searchSong());
         resetBtn.addActionListener(e -> resetPlaylist());
 
+        // Filter as you type
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { filterPlaylist(searchField.getText()); }
+            public void removeUpdate(DocumentEvent e) { filterPlaylist(searchField.getText()); }
+            public void changedUpdate(DocumentEvent e) { }
+        });
+
+        // Alt+Up / Alt+Down move the selected song
+        playlist.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_UP, InputEvent.ALT_DOWN_MASK), "moveUp");
+        playlist.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, InputEvent.ALT_DOWN_MASK), "moveDown");
+        playlist.getActionMap().put("moveUp", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) { moveSelectedSong(-1); }
+        });
+        playlist.getActionMap().put("moveDown", new AbstractAction() {
+            public void actionPerformed(ActionEvent e) { moveSelectedSong(1); }
+        });
+
         // Double click to play
         playlist.addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent e) {
                 if (e.getClickCount() == 2) {
                     int idx = playlist.locationToIndex(e.getPoint());
-                    if (idx >= 0) {
-                        currentIndex = idx;
-                        playSongAtIndex(currentIndex);
-                    }
+                    if (idx >= 0) service.play(idx);
                 }
             }
         });
 
-        // Volume control
-        volumeSlider.addChangeListener((ChangeEvent e) -> {
-            storedVolume = volumeSlider.getValue();
-            applyVolume();
+        // Durations and tags come from the cache; refresh totals at most every 200 ms
+        totalsTimer = new javax.swing.Timer(200, e -> updateTotals());
+        totalsTimer.setRepeats(false);
+        playlistModel.addListDataListener(new ListDataListener() {
+            public void intervalAdded(ListDataEvent e) { totalsTimer.restart(); }
+            public void intervalRemoved(ListDataEvent e) { totalsTimer.restart(); }
+            public void contentsChanged(ListDataEvent e) { totalsTimer.restart(); }
         });
+        service.addListener(new PlayerService.Listener() {
+            @Override
+            public void stateChanged(PlayerCore.Snapshot snapshot) {
+                onStateChanged(snapshot);
+            }
 
-        // --- SEEKING FEATURE ---
-        progressBar.addMouseListener(new MouseAdapter() {
             @Override
-            public void mousePressed(MouseEvent e) {
-                seekTo(e.getX());
+            public void libraryChanged() {
+                playlist.repaint();
+                totalsTimer.restart();
+            }
+
+            @Override
+            public void waveformReady(File file, WaveformSummary summary) {
+                if (file.equals(shown.file)) seekBar.setWaveform(summary);
+            }
+
+            @Override
+            public void importProgress(int filesSeen, int tracksFound) {
+                scanLabel.setText("Importing… " + filesSeen + " files checked, " + tracksFound + " tracks found");
             }
-        });
 
-        progressBar.addMouseMotionListener(new MouseMotionAdapter() {
             @Override
-            public void mouseDragged(MouseEvent e) {
-                seekTo(e.getX());
+            public void importFinished(int tracksFound, boolean cancelled) {
+                scanLabel.setText((cancelled ? "Import cancelled: " : "Imported ") + tracksFound + " tracks");
+                cancelScanBtn.setVisible(false);
+            }
+
+            @Override
+            public void movedTracksFound(int count) {
+                scanLabel.setText(count == 0 ? "No moved songs found" : "Found " + count + " moved songs");
+            }
+
+            @Override
+            public void playlistPageLoaded(boolean complete) {
+                totalsTimer.restart();
+            }
+
+            @Override
+            public void playlistSaveFailed(String message) {
+                JOptionPane.showMessageDialog(MusicPlayer.this, "DB Error: " + message + "\nChanges will be saved once it works again.");
             }
         });
 
+        // Volume control
+        // Crossfade into the next track; 0 keeps plain gapless playback
+        crossfadeSpinner.addChangeListener(e ->
+                service.setCrossfade(((Number) crossfadeSpinner.getValue()).floatValue()));
 
-        // center window
-        setLocationRelativeTo(null);
-    }
+        // Toggling affects the next track; gains are looked up when a track starts decoding
+        normalizeBox.addActionListener(e -> service.setNormalize(normalizeBox.isSelected()));
+        applyVolume();
 
-    // ---------- Seeking ----------
-    private void seekTo(int mouseX) {
-        if (clip != null && clip.isOpen()) {
-            int progressBarVal = (int) Math.round(((double) mouseX / progressBar.getWidth()) * progressBar.getMaximum());
-            progressBar.setValue(progressBarVal);
+        volumeSlider.addChangeListener((ChangeEvent e) -> {
+            storedVolume = volumeSlider.getValue();
+            applyVolume();
+        });
 
-            long total = clip.getMicrosecondLength();
-            long newPos = (long) ((progressBarVal / 1000.0) * total);
 
-            clip.setMicrosecondPosition(newPos);
-            if (!isPaused) {
-                clip.start();
+        // Scripts can drive the window too: -Dmusicplayer.control.port=7878, token in control.token
+        Integer controlPort = Integer.getInteger("musicplayer.control.port");
+        if (controlPort != null) {
+            try {
+                ControlServer server = new ControlServer(service, controlPort);
+                server.start();
+                server.writeToken(ControlServer.TOKEN_FILE);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
+
+        // center window
+        setLocationRelativeTo(null);
+    }
+
+    // ---------- Seeking ----------
+    private void seekTo(double fraction) {
+        service.seek(fraction);
     }
     private void removeSelectedSongs() {
         int[] selectedIndices = playlist.getSelectedIndices();
@@ -420,38 +465,21 @@ public class MusicPlayer extends JFrame {
         int confirm = JOptionPane.showConfirmDialog(this, message, "Confirm Remove", JOptionPane.YES_NO_OPTION);
         if (confirm != JOptionPane.YES_OPTION) return;
 
-        try (Connection conn = connectDB()) {
-            if (conn == null) return;
-
-            String sql = "DELETE FROM playlist WHERE user_id = ? AND path = ?";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                // Remove from highest index to lowest to avoid shifting
-                for (int i = selectedIndices.length - 1; i >= 0; i--) {
-                    int idx = selectedIndices[i];
-                    File f = playlistModel.get(idx);
-
-                    // Stop song if currently playing
-                    if (currentIndex == idx) {
-                        stopSong();
-                        currentIndex = -1;
-                    } else if (currentIndex > idx) {
-                        currentIndex--;
-                    }
-
-                    // Delete from database
-                    ps.setInt(1, currentUserId);
-                    ps.setString(2, f.getAbsolutePath());
-                    ps.executeUpdate();
-
-                    // Remove from UI
-                    playlistModel.remove(idx);
-                }
-            }
+        service.remove(selectedIndices);
+        JOptionPane.showMessageDialog(this, "Selected song(s) removed from playlist!");
+    }
 
-            JOptionPane.showMessageDialog(this, "Selected song(s) removed from playlist!");
-        } catch (SQLException ex) {
-            JOptionPane.showMessageDialog(this, "DB Error: " + ex.getMessage());
-            ex.printStackTrace();
+    private void moveSelectedSong(int delta) {
+        int[] selected = playlist.getSelectedIndices();
+        if (selected.length != 1) return;
+        int to = selected[0] + delta;
+        if (to < 0 || to >= playlistModel.size()) return;
+        if (service.move(selected[0], to)) {
+            playlist.setSelectedIndex(to);
+            playlist.ensureIndexIsVisible(to);
+        } else {
+            // Not while a search shows only some of the songs
+            UIManager.getLookAndFeel().provideErrorFeedback(playlist);
         }
     }
 
@@ -459,288 +487,280 @@ public class MusicPlayer extends JFrame {
     private void addSongs() {
         JFileChooser chooser = new JFileChooser();
         chooser.setMultiSelectionEnabled(true);
-        chooser.setDialogTitle("Select audio files (WAV recommended)");
+        chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        chooser.setDialogTitle("Select audio files or folders (WAV recommended)");
         int res = chooser.showOpenDialog(this);
         if (res == JFileChooser.APPROVE_OPTION) {
-            File[] files = chooser.getSelectedFiles();
-            for (File f : files) {
-                playlistModel.addElement(f);
+            List<File> files = new ArrayList<>();
+            List<File> folders = new ArrayList<>();
+            for (File f : chooser.getSelectedFiles()) {
+                if (f.isDirectory()) folders.add(f);
+                else files.add(f);
             }
-            for (File f : files) {
-                originalPlaylist.addElement(f);
+            if (!service.add(files, folders)) {
+                JOptionPane.showMessageDialog(this, "An import is already running.");
+            } else if (!folders.isEmpty()) {
+                // Tracks arrive in batches while the folders are walked
+                scanLabel.setText("Importing…");
+                cancelScanBtn.setVisible(true);
             }
         }
     }
 
-    // Save playlist to DB
-    private void savePlaylist() {
-        if (playlistModel.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Playlist is empty.");
+    // Missing songs are matched by content to the files in the chosen folder
+    private void findMovedSongs() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setDialogTitle("Select the folder the songs were moved to");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        if (!service.findMoved(List.of(chooser.getSelectedFile()))) {
+            JOptionPane.showMessageDialog(this, "An import is already running.");
             return;
         }
+        scanLabel.setText("Looking for moved songs…");
+        cancelScanBtn.setVisible(true);
+    }
 
-        try (Connection conn = connectDB()) {
-            if (conn == null) return;
+    // Track count and total length of the list as shown, from cached durations
+    private void updateTotals() {
+        long micros = 0;
+        int unknown = 0, missing = 0;
+        for (int i = 0; i < playlistModel.size(); i++) {
+            File f = playlistModel.get(i);
+            TrackInfo info = service.metadata().get(f);
+            if (info != null && info.durationMicros >= 0) micros += info.durationMicros;
+            else unknown++;
+            if (service.validator().isMissing(f)) missing++;
+        }
+        int n = playlistModel.size();
+        totalsLabel.setText(n == 0 ? " " : n + (n == 1 ? " track, " : " tracks, ")
+                + TrackCellRenderer.formatDuration(micros) + (unknown > 0 ? "+" : "")
+                + (missing > 0 ? ", " + missing + " missing" : "")
+                + (service.isLoaded() ? "" : " (more as you scroll)") + " ");
+    }
 
+    // Edits are saved as they're made; this writes any still waiting and confirms
+    private void savePlaylist() {
+        service.save().whenComplete((v, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex == null) {
+                JOptionPane.showMessageDialog(this, "Playlist saved");
+            } else {
+                JOptionPane.showMessageDialog(this, "DB Error: " + ex.getMessage());
+            }
+        }));
+    }
 
-            try (PreparedStatement stmt = conn.prepareStatement(
-                    "DELETE FROM playlist WHERE user_id = ?")) {
-                stmt.setInt(1, currentUserId);
-                stmt.executeUpdate();
+    // Reopens the current playlist from the database
+    private void loadPlaylist() {
+        try {
+            int open = service.openPlaylist();
+            if (open < 0) {
+                showPlaylists(service.openDefault(currentUserId).id);
+            } else if (service.open(open) == 0) {
+                JOptionPane.showMessageDialog(this, "Playlist is empty.");
+            } else {
+                JOptionPane.showMessageDialog(this, "Playlist loaded");
             }
-            String sql = "INSERT INTO playlist (user_id, name, path) VALUES (?, ?, ?)";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                for (int i = 0; i < playlistModel.size(); i++) {
-                    File f = playlistModel.get(i);
-                    ps.setInt(1, currentUserId);
-                    ps.setString(2, f.getName());
-                    ps.setString(3, f.getAbsolutePath());
-                    ps.executeUpdate();
-                }
+        } catch (SQLException ex) {
+            JOptionPane.showMessageDialog(this, "DB Error: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    // Refills the playlist chooser and selects selectId, without reopening anything
+    private void showPlaylists(int selectId) throws SQLException {
+        refillingPlaylists = true;
+        try {
+            playlistBox.removeAllItems();
+            for (PlaylistStore.Playlist p : service.playlists(currentUserId)) {
+                playlistBox.addItem(p);
+                if (p.id == selectId) playlistBox.setSelectedItem(p);
             }
+        } finally {
+            refillingPlaylists = false;
+        }
+    }
 
-            JOptionPane.showMessageDialog(this, "Playlist saved");
+    private void openSelectedPlaylist() {
+        PlaylistStore.Playlist p = (PlaylistStore.Playlist) playlistBox.getSelectedItem();
+        if (p == null || p.id == service.openPlaylist()) return;
+        try {
+            service.open(p.id);
         } catch (SQLException ex) {
             JOptionPane.showMessageDialog(this, "DB Error: " + ex.getMessage());
             ex.printStackTrace();
         }
     }
 
-    private void loadPlaylist() {
-        try (Connection conn = connectDB()) {
-            if (conn == null) return;
-
-            String sql = "SELECT name, path FROM playlist WHERE user_id = ?";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setInt(1, currentUserId);
-                try (ResultSet rs = ps.executeQuery()) {
-                    playlistModel.clear();
-                    boolean missingFiles = false;
-
-                    while (rs.next()) {
-                        String path = rs.getString("path");
-                        File f = new File(path);
-                        if (f.exists()) {
-                            playlistModel.addElement(f);
-                        } else {
-                            missingFiles = true;
-                        }
-                    }
-                    if (playlistModel.isEmpty()) {
-                        JOptionPane.showMessageDialog(this, "Playlist is empty.");
-                    } else {
-                        JOptionPane.showMessageDialog(this, "Playlist loaded");
-                    }
-                    // Backup current playlist for reset
-                    originalPlaylist.clear();
-                    for (int i = 0; i < playlistModel.size(); i++) {
-                        originalPlaylist.addElement(playlistModel.get(i));
-                    }
-
-                    if (missingFiles) {
-                        JOptionPane.showMessageDialog(this,
-                                "⚠ Some files were missing and could not be loaded.",
-                                "file not found",
-                                JOptionPane.WARNING_MESSAGE);
-                    }
-                }
+    // A name no other playlist of the user's has (current is the one being renamed, if any),
+    // or null if cancelled
+    private String askPlaylistName(String title, String current) {
+        String name = current == null ? "" : current;
+        while (true) {
+            name = (String) JOptionPane.showInputDialog(this, "Playlist name:", title,
+                    JOptionPane.PLAIN_MESSAGE, null, null, name);
+            if (name == null) return null;
+            name = name.trim();
+            if (name.isEmpty()) continue;
+            boolean taken = false;
+            for (int i = 0; i < playlistBox.getItemCount(); i++) {
+                if (playlistBox.getItemAt(i).name.equals(name) && !name.equals(current)) taken = true;
             }
+            if (!taken) return name;
+            JOptionPane.showMessageDialog(this, "There is already a playlist called \"" + name + "\".");
+        }
+    }
+
+    private void newPlaylist() {
+        String name = askPlaylistName("New Playlist", null);
+        if (name == null) return;
+        try {
+            PlaylistStore.Playlist p = service.createPlaylist(currentUserId, name);
+            service.open(p.id);
+            showPlaylists(p.id);
+        } catch (SQLException ex) {
+            JOptionPane.showMessageDialog(this, "DB Error: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    private void renamePlaylist() {
+        PlaylistStore.Playlist p = (PlaylistStore.Playlist) playlistBox.getSelectedItem();
+        if (p == null) return;
+        String name = askPlaylistName("Rename Playlist", p.name);
+        if (name == null || name.equals(p.name)) return;
+        try {
+            service.renamePlaylist(p.id, name);
+            showPlaylists(p.id);
+        } catch (SQLException ex) {
+            JOptionPane.showMessageDialog(this, "DB Error: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
 
+    private void deletePlaylist() {
+        PlaylistStore.Playlist p = (PlaylistStore.Playlist) playlistBox.getSelectedItem();
+        if (p == null) return;
+        int confirm = JOptionPane.showConfirmDialog(this, "Delete the playlist \"" + p.name + "\"?",
+                "Confirm Delete", JOptionPane.YES_NO_OPTION);
+        if (confirm != JOptionPane.YES_OPTION) return;
+        try {
+            service.deletePlaylist(p.id);
+            // Back to the first one left, or a new empty one
+            showPlaylists(service.openDefault(currentUserId).id);
         } catch (SQLException ex) {
             JOptionPane.showMessageDialog(this, "DB Error: " + ex.getMessage());
             ex.printStackTrace();
         }
     }
+
     private void searchSong() {
         String keyword = searchField.getText().trim();
         if (keyword.isEmpty()) {
             JOptionPane.showMessageDialog(this, "Enter a song name to search.");
             return;
         }
-
-        try (Connection conn = connectDB()) {
-            if (conn == null) return;
-
-            String sql = "SELECT name, path FROM playlist WHERE user_id = ? " +
-                    "AND (name LIKE ? OR name LIKE ?)";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setInt(1, currentUserId);
-                ps.setString(2, keyword + "%");      // songs starting with keyword
-                ps.setString(3, "%" + keyword + "%"); // songs containing keyword
-
-                try (ResultSet rs = ps.executeQuery()) {
-                    playlistModel.clear();
-                    boolean found = false;
-
-                    while (rs.next()) {
-                        String path = rs.getString("path");
-                        File f = new File(path);
-                        if (f.exists()) {
-                            playlistModel.addElement(f);
-                            found = true;
-                        }
-                    }
-
-                    if (!found) {
-                        JOptionPane.showMessageDialog(this, "No matching songs found.");
-                    }
-                }
-            }
-        } catch (SQLException ex) {
-            JOptionPane.showMessageDialog(this, "DB Error: " + ex.getMessage());
-            ex.printStackTrace();
+        filterPlaylist(keyword);
+        if (playlistModel.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No matching songs found.");
         }
     }
+    // Shows the library tracks whose name, path or tags contain every word of the query
+    private void filterPlaylist(String query) {
+        service.filter(query);
+    }
     private void resetPlaylist() {
-        playlistModel.clear();
-        for (int i = 0; i < originalPlaylist.size(); i++) {
-            playlistModel.addElement(originalPlaylist.get(i));
+        if (searchField.getText().isEmpty()) {
+            showFullPlaylist();
+        } else {
+            searchField.setText(""); // the document listener shows the full list
         }
     }
+    private void showFullPlaylist() {
+        service.showAll();
+    }
     private void playSelectedOrCurrent() {
-        if (!playlist.isSelectionEmpty()) {
-            currentIndex = playlist.getSelectedIndex();
-        }
-        if (currentIndex == -1 && !playlistModel.isEmpty()) {
-            currentIndex = 0;
-        }
-        if (currentIndex >= 0) playSongAtIndex(currentIndex);
+        int index = playlist.getSelectedIndex();
+        if (index < 0) index = shown.row;
+        if (index < 0 && !playlistModel.isEmpty()) index = 0;
+        if (index >= 0) service.play(index);
         else JOptionPane.showMessageDialog(this, "No song selected or in playlist.");
     }
-    private void playSongAtIndex(int index) {
-        if (index < 0 || index >= playlistModel.size()) return;
 
-        File f = playlistModel.get(index);
-        if (!f.exists()) {
-            JOptionPane.showMessageDialog(this, "File not found: " + f.getAbsolutePath());
-            return;
+    // ---------- Player state ----------
+    // The core says what happened; this only renders it
+    private void onStateChanged(PlayerCore.Snapshot s) {
+        PlayerCore.Snapshot old = shown;
+        shown = s;
+        if (s.shuffle != old.shuffle) shuffleBtn.setText("Shuffle: " + (s.shuffle ? "ON" : "OFF"));
+        if (s.repeat != old.repeat) repeatBtn.setText("Repeat: " + (s.repeat ? "ON" : "OFF"));
+        boolean newTrack = s.file != null && !s.file.equals(old.file);
+        if (newTrack) seekBar.setWaveform(null); // the service brings the new one
+        if (s.row >= 0 && (newTrack || s.row != old.row) && s.row < playlistModel.size()) {
+            playlist.setSelectedIndex(s.row);
+            playlist.ensureIndexIsVisible(s.row);
         }
-
-        try {
-            if (clip != null) {
-                clip.stop();
-                clip.close();
-            }
-            AudioInputStream ais = AudioSystem.getAudioInputStream(f);
-            clip = AudioSystem.getClip();
-            clip.open(ais);
-
-            if (clip.isControlSupported(FloatControl.Type.MASTER_GAIN)) {
-                gainControl = (FloatControl) clip.getControl(FloatControl.Type.MASTER_GAIN);
-            } else {
-                gainControl = null;
-            }
-            isPaused = false;
-            pauseMicroseconds = 0;
-            currentIndex = index;
-            applyVolume();
-            clip.start();
-            setTitle("Playing: " + f.getName());
-            playlist.setSelectedIndex(index);
-            playlist.ensureIndexIsVisible(index);
-            songLabel.setText("Playing: " + f.getName());
-            updateTimeLabels(0, clip.getMicrosecondLength());
-            if (progressTimer != null) progressTimer.stop();
-            progressTimer = new javax.swing.Timer(1000, e -> {
-                if (clip != null && clip.isOpen()) {
-                    long current = clip.getMicrosecondPosition();
-                    long total = clip.getMicrosecondLength();
-                    updateTimeLabels(current, total);
-
-                    int progress = (int) ((current * 1000) / total);
-                    progressBar.setValue(progress);
-                }
-            });
-            progressTimer.start();
-            clip.addLineListener(event -> {
-                if (event.getType() == LineEvent.Type.STOP) {
-                    if (!isPaused) {
-                        long pos = clip.getMicrosecondPosition();
-                        long len = clip.getMicrosecondLength();
-                        if (len > 0 && pos >= len - 2000) {
-                            SwingUtilities.invokeLater(() -> {
-                                if (isRepeat) {
-                                    playSongAtIndex(currentIndex);
-                                } else {
-                                    nextSong();
-                                }
-                            });
-                        }
-                    }
+        String name = s.file == null ? "" : s.file.getName();
+        switch (s.state) {
+            case LOADING:
+                songLabel.setText("Loading: " + name);
+                break;
+            case PLAYING:
+                setTitle("Playing: " + name);
+                songLabel.setText("Playing: " + name);
+                clock.start();
+                break;
+            case PAUSED:
+                setTitle("Paused: " + name);
+                break;
+            case STOPPED:
+                clock.stop();
+                seekBar.setPosition(0, 0);
+                timeLabel.setTime(0, 0);
+                if (s.error != null) {
+                    songLabel.setText("Failed: " + name);
+                    JOptionPane.showMessageDialog(this, s.error);
+                } else {
+                    songLabel.setText("Stopped");
+                    setTitle("Stopped");
                 }
-            });
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Playback error: " + ex.getMessage());
+                break;
+            default:
+                break;
         }
+        clock.refresh();
     }
+
     private void togglePause() {
-        if (clip == null) return;
-        if (clip.isRunning()) {
-            pauseMicroseconds = clip.getMicrosecondPosition();
-            clip.stop();
-            isPaused = true;
-            setTitle("Paused: " + (currentIndex >= 0 ? playlistModel.get(currentIndex).getName() : ""));
-        } else {
-            clip.setMicrosecondPosition(pauseMicroseconds);
-            clip.start();
-            isPaused = false;
-            setTitle("Playing: " + (currentIndex >= 0 ? playlistModel.get(currentIndex).getName() : ""));
-        }
+        service.togglePause();
     }
     private void stopSong() {
-        if (clip != null) {
-            clip.stop();
-            clip.setMicrosecondPosition(0);
-            isPaused = false;
-        }
-        if (progressTimer != null) progressTimer.stop();
-        progressBar.setValue(0);
-        timeLabel.setText("00:00 / 00:00");
-        songLabel.setText("Stopped");
-        setTitle("Stopped");
+        service.stop();
     }
     private void nextSong() {
-        if (playlistModel.isEmpty()) return;
-        currentIndex = (currentIndex + 1) % playlistModel.size();
-        playSongAtIndex(currentIndex);
+        service.next();
     }
     private void prevSong() {
-        if (playlistModel.isEmpty()) return;
-        currentIndex = (currentIndex - 1 + playlistModel.size()) % playlistModel.size();
-        playSongAtIndex(currentIndex);
+        service.previous();
     }
-    private void shuffleAndPlay() {
-        if (playlistModel.isEmpty()) return;
-        currentIndex = random.nextInt(playlistModel.size());
-        playSongAtIndex(currentIndex);
+    // Shuffle is a mode: next, previous and the auto-advance all follow it
+    private void toggleShuffle() {
+        service.setShuffle(!service.snapshot().shuffle);
     }
     private void toggleRepeat() {
-        isRepeat = !isRepeat;
-        repeatBtn.setText("Repeat: " + (isRepeat ? "ON" : "OFF"));
+        service.setRepeat(!service.snapshot().repeat);
     }
     private void applyVolume() {
-        if (gainControl != null) {
-            float min = gainControl.getMinimum();
-            float max = gainControl.getMaximum();
-            float range = max - min;
-            float gain = min + (range * (storedVolume / 100.0f));
-            try {
-                gainControl.setValue(gain);
-            } catch (IllegalArgumentException ignored) {}
-        }
-    }
-    private void updateTimeLabels(long currentMicros, long totalMicros) {
-        String cur = formatTime(currentMicros);
-        String tot = formatTime(totalMicros);
-        timeLabel.setText(cur + " / " + tot);
-    }
-    private String formatTime(long microseconds) {
-        long seconds = microseconds / 1_000_000;
-        long minutes = seconds / 60;
-        seconds = seconds % 60;
-        return String.format("%02d:%02d", minutes, seconds);
+        service.setVolume(storedVolume);
     }
     public static void main(String[] args) {
+        Metrics.start();
+        // Open the database and run any schema migration before the UI comes up
+        try {
+            Database.get();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
         SwingUtilities.invokeLater(() -> new LoginFrame().setVisible(true));
     }
 }
@@ -0,0 +1,126 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded byte ring between the decoder thread (producer) and the line feeder (consumer).
+// clear() starts a new generation: writes tagged with an older generation are dropped, so
+// nothing decoded before a seek or track change can reach the line afterwards.
+// mark() records a position in the stream; read() stops there once and returns -1.
+class PcmRingBuffer {
+    private final byte[] data;
+    private int readPos, writePos, count;
+    private long totalWritten, totalRead;
+    private long generation;
+    private boolean closed;
+    private final ArrayDeque<Long> marks = new ArrayDeque<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    PcmRingBuffer(int capacity) {
+        data = new byte[capacity];
+    }
+
+    long generation() {
+        lock.lock();
+        try {
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Blocks until everything is stored. Returns false if the generation moved on meanwhile.
+    boolean write(byte[] b, int off, int len, long gen) throws InterruptedException {
+        lock.lock();
+        try {
+            while (len > 0) {
+                while (count == data.length && gen == generation && !closed) notFull.await();
+                if (gen != generation || closed) return false;
+                int n = Math.min(len, data.length - count);
+                int first = Math.min(n, data.length - writePos);
+                System.arraycopy(b, off, data, writePos, first);
+                System.arraycopy(b, off + first, data, 0, n - first);
+                writePos = (writePos + n) % data.length;
+                count += n;
+                totalWritten += n;
+                off += n;
+                len -= n;
+                notEmpty.signalAll();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void mark(long gen) {
+        lock.lock();
+        try {
+            if (gen != generation) return;
+            marks.addLast(totalWritten);
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Blocks until whole frames or a mark are available. Returns the byte count (a multiple
+    // of frameSize), -1 when a mark is reached, or 0 if the generation isn't gen (any more).
+    int read(byte[] b, int off, int len, int frameSize, long gen) throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (gen != generation || closed) return 0;
+                if (!marks.isEmpty() && marks.peekFirst() == totalRead) {
+                    marks.pollFirst();
+                    return -1;
+                }
+                long avail = count;
+                if (!marks.isEmpty()) avail = Math.min(avail, marks.peekFirst() - totalRead);
+                int n = (int) Math.min(len, avail);
+                n -= n % frameSize;
+                if (n > 0) {
+                    int first = Math.min(n, data.length - readPos);
+                    System.arraycopy(data, readPos, b, off, first);
+                    System.arraycopy(data, 0, b, off + first, n - first);
+                    readPos = (readPos + n) % data.length;
+                    count -= n;
+                    totalRead += n;
+                    notFull.signalAll();
+                    return n;
+                }
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long clear() {
+        lock.lock();
+        try {
+            readPos = writePos = count = 0;
+            totalWritten = totalRead = 0;
+            marks.clear();
+            generation++;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
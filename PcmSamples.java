@@ -0,0 +1,47 @@
+import javax.sound.sampled.AudioFormat;
+
+// Reads and writes single integer PCM samples (8 to 32 bits, either byte order, signed or
+// unsigned) as floats in [-1, 1). Samples are left-justified into an int first, so every
+// width ends up on the same scale.
+final class PcmSamples {
+    private PcmSamples() {
+    }
+
+    static boolean supports(AudioFormat format) {
+        int bits = format.getSampleSizeInBits();
+        return (format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED
+                || format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED)
+                && bits % 8 == 0 && bits >= 8 && bits <= 32
+                && format.getFrameSize() == format.getChannels() * bits / 8;
+    }
+
+    static boolean isUnsigned(AudioFormat format) {
+        return format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED;
+    }
+
+    static float get(byte[] b, int i, int bytes, boolean bigEndian, boolean unsigned) {
+        int v = 0;
+        if (bigEndian) {
+            for (int k = 0; k < bytes; k++) v = (v << 8) | (b[i + k] & 0xFF);
+        } else {
+            for (int k = bytes - 1; k >= 0; k--) v = (v << 8) | (b[i + k] & 0xFF);
+        }
+        v <<= 32 - bytes * 8;
+        if (unsigned) v ^= Integer.MIN_VALUE;
+        return v * (1f / 2147483648f);
+    }
+
+    // Rounds to the nearest step and clips anything outside full scale
+    static void put(byte[] b, int i, int bytes, boolean bigEndian, boolean unsigned, float sample) {
+        long half = 1L << (bytes * 8 - 1);
+        long v = Math.round(sample * (double) half);
+        if (v >= half) v = half - 1;
+        else if (v < -half) v = -half;
+        if (unsigned) v += half;
+        if (bigEndian) {
+            for (int k = bytes - 1; k >= 0; k--, v >>>= 8) b[i + k] = (byte) v;
+        } else {
+            for (int k = 0; k < bytes; k++, v >>>= 8) b[i + k] = (byte) v;
+        }
+    }
+}
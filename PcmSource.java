@@ -0,0 +1,25 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+// A seekable stream of PCM frames that the playback engine pulls from.
+interface PcmSource extends Closeable {
+
+    AudioFormat getFormat();
+
+    // Total length in frames, or AudioSystem.NOT_SPECIFIED when the decoder can't tell
+    long getFrameLength();
+
+    // Same contract as InputStream.read: -1 at end of stream, always whole frames
+    int read(byte[] b, int off, int len) throws IOException;
+
+    void seekFrame(long frame) throws IOException;
+
+    // Plain PCM WAV/AIFF is memory-mapped; everything else goes through AudioSystem
+    static PcmSource open(File file) throws IOException, UnsupportedAudioFileException {
+        PcmSource mapped = MappedPcmSource.tryOpen(file);
+        return mapped != null ? mapped : new StreamPcmSource(file);
+    }
+}
@@ -0,0 +1,286 @@
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.Random;
+
+// Decides which row plays next, in order or shuffled. Shuffle is a Fisher–Yates permutation
+// of the row indices drawn one step at a time: order[0, dealt) has played this cycle and the
+// next track is a random pick from the rest, so every row plays once before any repeats and
+// next() is O(1). previous() walks back through a history stack and next() then retraces it.
+// The queue is fed the list model's events, so adding, removing or moving rows renumbers the
+// permutation and the history in one pass instead of reshuffling.
+// Not thread-safe; the player core owns it.
+class PlayQueue implements ListDataListener {
+    private static final int MAX_HISTORY = 10_000;
+
+    private final Random random = new Random();
+    private int size;
+    private int[] order = new int[16];
+    private int[] slot = new int[16]; // slot[row] = position of row in order
+    private int dealt;
+    private boolean drawn; // order[dealt] was already picked by peekNext()
+    private final IntStack back = new IntStack();
+    private final IntStack forward = new IntStack();
+    private int current = -1;
+    private int resumeAt; // where in-order play continues after the current row was removed
+    private boolean shuffle;
+
+    PlayQueue(int rows) {
+        grow(rows);
+        for (int i = 0; i < rows; i++) add(i);
+    }
+
+    boolean isShuffle() {
+        return shuffle;
+    }
+
+    // Starts a fresh shuffle cycle (the current row counts as played) or goes back to list order
+    void setShuffle(boolean on) {
+        shuffle = on;
+        dealt = 0;
+        drawn = false;
+        forward.clear();
+        if (current >= 0) deal(current);
+    }
+
+    // -1 when nothing has been picked or the current row was removed
+    int current() {
+        return current;
+    }
+
+    // The user picked a row; -1 just forgets the current one
+    void jumpTo(int row) {
+        if (row == current) return;
+        if (current >= 0) back.push(current);
+        forward.clear();
+        current = row;
+        if (row >= 0) deal(row);
+    }
+
+    // Row that next() will return, -1 if the list is empty. Stable until next() or an edit.
+    int peekNext() {
+        if (size == 0) return -1;
+        if (shuffle) {
+            if (!forward.isEmpty()) return forward.peek();
+            if (!drawn) draw();
+            return order[dealt];
+        }
+        if (current < 0) return resumeAt < size ? resumeAt : 0;
+        return (current + 1) % size;
+    }
+
+    int next() {
+        int row = peekNext();
+        if (row < 0) return -1;
+        if (shuffle && !forward.isEmpty()) {
+            forward.pop();
+        } else if (shuffle) {
+            dealt++;
+            drawn = false;
+        }
+        if (current >= 0) back.push(current);
+        current = row;
+        return row;
+    }
+
+    // Shuffled: the track before this one. In order: the row above, wrapping like next().
+    int previous() {
+        if (size == 0) return -1;
+        if (!shuffle) {
+            current = current < 0 ? Math.min(resumeAt, size) - 1 : current - 1;
+            if (current < 0) current += size;
+            return current;
+        }
+        if (back.isEmpty()) return current;
+        if (current >= 0) forward.push(current);
+        current = back.pop();
+        return current;
+    }
+
+    // Picks order[dealt] from the undealt rows, starting a new cycle when all have played.
+    // A new cycle avoids opening with the track that just finished.
+    private void draw() {
+        if (dealt == size) dealt = 0;
+        swap(dealt, dealt + random.nextInt(size - dealt));
+        int left = size - dealt;
+        if (order[dealt] == current && left > 1) swap(dealt, dealt + 1 + random.nextInt(left - 1));
+        drawn = true;
+    }
+
+    // Moves row into the played part of this cycle
+    private void deal(int row) {
+        int p = slot[row];
+        if (p < dealt) return;
+        swap(p, dealt++);
+        drawn = false;
+    }
+
+    private void swap(int a, int b) {
+        int ra = order[a], rb = order[b];
+        order[a] = rb;
+        order[b] = ra;
+        slot[rb] = a;
+        slot[ra] = b;
+    }
+
+    private void add(int row) {
+        order[size] = row;
+        slot[row] = size;
+        size++;
+    }
+
+    private void grow(int capacity) {
+        if (capacity <= order.length) return;
+        int n = Math.max(capacity, order.length * 2);
+        int[] o = new int[n];
+        System.arraycopy(order, 0, o, 0, size);
+        order = o;
+        slot = new int[n];
+        for (int p = 0; p < size; p++) slot[order[p]] = p;
+    }
+
+    // ---------- Model edits ----------
+
+    @Override
+    public void intervalAdded(ListDataEvent e) {
+        int first = e.getIndex0(), count = e.getIndex1() - first + 1;
+        grow(size + count);
+        for (int p = 0; p < size; p++) {
+            if (order[p] >= first) order[p] += count;
+        }
+        int oldSize = size;
+        size = 0;
+        for (int p = 0; p < oldSize; p++) add(order[p]);
+        // New rows join the undealt part, so they come up in this cycle
+        for (int row = first; row < first + count; row++) add(row);
+        back.shift(first, count);
+        forward.shift(first, count);
+        if (current >= first) current += count;
+        if (resumeAt >= first) resumeAt += count;
+    }
+
+    @Override
+    public void intervalRemoved(ListDataEvent e) {
+        int first = e.getIndex0(), last = e.getIndex1(), count = last - first + 1;
+        int kept = 0, keptDealt = 0;
+        for (int p = 0; p < size; p++) {
+            int row = order[p];
+            if (row >= first && row <= last) {
+                if (p == dealt) drawn = false;
+                continue;
+            }
+            if (p < dealt) keptDealt++;
+            order[kept] = row > last ? row - count : row;
+            slot[order[kept]] = kept;
+            kept++;
+        }
+        size = kept;
+        dealt = keptDealt;
+        back.remove(first, last);
+        forward.remove(first, last);
+        if (current > last) {
+            current -= count;
+        } else if (current >= first) {
+            current = -1;
+            resumeAt = first;
+        }
+        if (resumeAt > last) resumeAt -= count;
+        else if (resumeAt > first) resumeAt = first;
+    }
+
+    // The row at from was taken out and put back at to, the rows in between shifting one
+    // place. Same tracks, so they keep their place in the cycle and in the history.
+    void moved(int from, int to) {
+        if (from == to) return;
+        for (int p = 0; p < size; p++) {
+            order[p] = moved(order[p], from, to);
+            slot[order[p]] = p;
+        }
+        back.move(from, to);
+        forward.move(from, to);
+        if (current >= 0) current = moved(current, from, to);
+        if (resumeAt < size) resumeAt = moved(resumeAt, from, to);
+    }
+
+    // Where row ends up after moved(from, to)
+    private static int moved(int row, int from, int to) {
+        if (row == from) return to;
+        if (from < to && row > from && row <= to) return row - 1;
+        if (from > to && row >= to && row < from) return row + 1;
+        return row;
+    }
+
+    // Rows replaced in place: the old tracks are gone and new ones took their indices
+    @Override
+    public void contentsChanged(ListDataEvent e) {
+        intervalRemoved(e);
+        int resume = resumeAt;
+        intervalAdded(e);
+        resumeAt = resume; // the replacements sit where the old rows were
+    }
+
+    // Row indices, oldest first, in a ring so that past MAX_HISTORY the oldest is overwritten
+    private static final class IntStack {
+        private int[] rows = new int[16];
+        private int start;
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(int row) {
+            if (size == rows.length && size < MAX_HISTORY) {
+                int[] grown = new int[Math.min(MAX_HISTORY, size * 2)];
+                for (int i = 0; i < size; i++) grown[i] = get(i);
+                rows = grown;
+                start = 0;
+            }
+            if (size == rows.length) {
+                start = (start + 1) % rows.length;
+                size--;
+            }
+            rows[(start + size++) % rows.length] = row;
+        }
+
+        int peek() {
+            return get(size - 1);
+        }
+
+        int pop() {
+            return get(--size);
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        private int get(int i) {
+            return rows[(start + i) % rows.length];
+        }
+
+        private void set(int i, int row) {
+            rows[(start + i) % rows.length] = row;
+        }
+
+        void shift(int first, int count) {
+            for (int i = 0; i < size; i++) {
+                if (get(i) >= first) set(i, get(i) + count);
+            }
+        }
+
+        void move(int from, int to) {
+            for (int i = 0; i < size; i++) set(i, moved(get(i), from, to));
+        }
+
+        // Drops rows in [first, last] and renumbers the ones after
+        void remove(int first, int last) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int row = get(i);
+                if (row >= first && row <= last) continue;
+                set(kept++, row > last ? row - (last - first + 1) : row);
+            }
+            size = kept;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+// What MusicPlayer needs from an audio backend. Method names follow javax.sound.sampled.Clip
+// so the player reads the same whichever engine is plugged in.
+interface PlaybackEngine {
+
+    // Called on the engine's own threads
+    interface Listener {
+        // Natural end of the current track with nothing queued behind it
+        // (not fired for stop() or close())
+        void endOfTrack();
+
+        // The track passed to queueNext() took over (gapless or crossfaded) and is now audible
+        default void queuedTrackStarted(File file) {}
+    }
+
+    // Per-track normalization, looked up when a track starts decoding
+    interface TrackGain {
+        // Gain in dB for file, or NaN if it isn't known (played unchanged)
+        float gainDb(File file);
+    }
+
+    void open(File file) throws IOException, UnsupportedAudioFileException, LineUnavailableException;
+
+    // Opens and pre-buffers file in the background so it can follow the current track
+    // sample-contiguously. Replaces anything queued before; null clears the queue.
+    void queueNext(File file);
+
+    // Overlap the end of each track with the start of the queued one; 0 for plain gapless
+    void setCrossfade(float seconds, CrossfadeMixer.Curve curve);
+
+    boolean isOpen();
+
+    void start();
+
+    // Pauses output; start() resumes from the same frame
+    void stop();
+
+    boolean isRunning();
+
+    long getMicrosecondPosition();
+
+    long getMicrosecondLength();
+
+    void setMicrosecondPosition(long microseconds);
+
+    // Linear output gain, applied to the samples and ramped to avoid clicks
+    void setVolume(float gain);
+
+    void setTrackGain(TrackGain trackGain);
+
+    void setListener(Listener listener);
+
+    void close();
+}
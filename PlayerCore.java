@@ -0,0 +1,279 @@
+import javax.swing.SwingUtilities;
+import javax.swing.event.ListDataEvent;
+import java.io.File;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// The one place playback state changes. The UI, the engine's callbacks and the loader post
+// commands to a lock-free queue; a single "player-core" thread applies them in order, drives
+// the engine and the play queue, and publishes an immutable Snapshot after each change.
+// An engine event is judged against the state it finds when its turn comes, so an end of
+// track that raced with a seek, pause, stop or skip is dropped instead of advancing twice.
+class PlayerCore {
+
+    enum State { IDLE, LOADING, PLAYING, PAUSED, STOPPED }
+
+    interface Listener {
+        // On the EDT, in the order the snapshots were made
+        void stateChanged(Snapshot snapshot);
+    }
+
+    static final class Snapshot {
+        final State state;
+        final int row;      // row of file in the list, -1 if it isn't there
+        final File file;    // null until something was loaded
+        final File next;    // what the engine has queued to follow, or null
+        final boolean repeat;
+        final boolean shuffle;
+        final String error; // why the load failed, on the STOPPED snapshot that reports it
+
+        Snapshot(State state, int row, File file, File next, boolean repeat, boolean shuffle, String error) {
+            this.state = state;
+            this.row = row;
+            this.file = file;
+            this.next = next;
+            this.repeat = repeat;
+            this.shuffle = shuffle;
+            this.error = error;
+        }
+    }
+
+    private final PlaybackEngine engine;
+    private final Listener listener;
+    private final TrackLoader loader;
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile Snapshot snapshot = new Snapshot(State.IDLE, -1, null, null, false, false, null);
+
+    // Core thread only
+    private final TrackListModel tracks = new TrackListModel(); // follows the service's list
+    private final PlayQueue queue = new PlayQueue(0);
+    private State state = State.IDLE;
+    private int row = -1;
+    private File file;
+    private int nextRow = -1;
+    private File next;
+    private boolean repeat;
+
+    PlayerCore(PlaybackEngine engine, Listener listener) {
+        this.engine = engine;
+        this.listener = listener;
+        loader = new TrackLoader(engine, this::loadStateChanged, this::post);
+        engine.setListener(new PlaybackEngine.Listener() {
+            @Override
+            public void endOfTrack() {
+                post(PlayerCore.this::trackEnded);
+            }
+
+            @Override
+            public void queuedTrackStarted(File f) {
+                post(() -> queuedStarted(f));
+            }
+        });
+        thread = new Thread(this::run, "player-core");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Latest published state; any thread
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    // ---------- Commands (any thread) ----------
+
+    void play(int row) {
+        post(() -> {
+            if (row < 0 || row >= tracks.size()) return;
+            queue.jumpTo(row);
+            load(row);
+        });
+    }
+
+    void next() {
+        post(() -> load(queue.next()));
+    }
+
+    void previous() {
+        post(() -> load(queue.previous()));
+    }
+
+    void togglePause() {
+        post(() -> {
+            if (state == State.PLAYING) {
+                engine.stop();
+                state = State.PAUSED;
+            } else if (state == State.PAUSED) {
+                engine.start();
+                state = State.PLAYING;
+            } else {
+                return;
+            }
+            publish(null);
+        });
+    }
+
+    void stop() {
+        post(() -> {
+            loader.cancel();
+            if (engine.isOpen()) {
+                engine.stop();
+                engine.setMicrosecondPosition(0);
+            }
+            state = State.STOPPED;
+            publish(null);
+        });
+    }
+
+    // Jumps to a fraction of the current track; resumes playback unless paused
+    void seek(double fraction) {
+        post(() -> {
+            if (!engine.isOpen() || state == State.LOADING || state == State.IDLE) return;
+            engine.setMicrosecondPosition((long) (fraction * engine.getMicrosecondLength()));
+            if (state != State.PAUSED) {
+                engine.start();
+                state = State.PLAYING;
+            }
+            publish(null);
+        });
+    }
+
+    void setRepeat(boolean on) {
+        post(() -> {
+            repeat = on;
+            queueNext();
+            publish(null);
+        });
+    }
+
+    // Turning shuffle on with nothing loaded yet starts a random track
+    void setShuffle(boolean on) {
+        post(() -> {
+            queue.setShuffle(on);
+            if (on && file == null) {
+                load(queue.next());
+                return;
+            }
+            queueNext();
+            publish(null);
+        });
+    }
+
+    // The list changed as e describes; rows are the ones now in e's range, null for a removal
+    // or a move. Moved and relocated rows are the same tracks, so the queue keeps their history.
+    void tracksChanged(ListDataEvent e, TrackListModel rows) {
+        post(() -> {
+            tracks.replay(e, rows);
+            if (e.getType() == ListDataEvent.INTERVAL_ADDED) queue.intervalAdded(e);
+            else if (e.getType() == ListDataEvent.INTERVAL_REMOVED) queue.intervalRemoved(e);
+            else if (e instanceof TrackListModel.Moved m) queue.moved(m.from, m.to);
+            else if (!(e instanceof TrackListModel.Relocated)) queue.contentsChanged(e);
+            // Follow the playing file if its row moved or was replaced
+            int r = queue.current();
+            if (e instanceof TrackListModel.Relocated && r >= e.getIndex0() && r <= e.getIndex1()) {
+                file = tracks.get(r); // same track, new path
+            }
+            if (file != null && (r < 0 || r >= tracks.size() || !tracks.get(r).equals(file))) {
+                r = tracks.indexOf(file);
+                queue.jumpTo(r);
+            }
+            File queued = next;
+            queueNext();
+            if (r != row || !Objects.equals(queued, next)) {
+                row = r;
+                publish(null);
+            }
+        });
+    }
+
+    // ---------- Core thread ----------
+
+    private void post(Runnable command) {
+        commands.add(command);
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        while (true) {
+            Runnable command = commands.poll();
+            if (command == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void load(int r) {
+        if (r < 0 || r >= tracks.size()) return;
+        row = r;
+        file = tracks.get(r);
+        next = null;
+        nextRow = -1;
+        state = State.LOADING;
+        loader.load(r, file);
+        publish(null);
+    }
+
+    private void loadStateChanged(int index, File f, TrackLoader.State loadState, String message) {
+        if (loadState == TrackLoader.State.READY) {
+            engine.start();
+            state = State.PLAYING;
+            queueNext();
+            publish(null);
+        } else if (loadState == TrackLoader.State.FAILED) {
+            state = State.STOPPED;
+            publish(message);
+        }
+    }
+
+    private void trackEnded() {
+        // Stale if a seek restarted the line or a pause, stop or new track got here first
+        if (state != State.PLAYING || engine.isRunning()) return;
+        if (repeat && row >= 0) {
+            load(row);
+        } else if (tracks.size() > 0) {
+            load(queue.next());
+        } else {
+            state = State.STOPPED;
+            publish(null);
+        }
+    }
+
+    private void queuedStarted(File f) {
+        if (state != State.PLAYING && state != State.PAUSED) return; // a newer load replaced it
+        int r = nextRow;
+        if (r < 0 || r >= tracks.size() || !tracks.get(r).equals(f)) r = tracks.indexOf(f);
+        // Keep the queue in step: the track it offered, or whatever the engine actually started
+        if (r != queue.current()) {
+            if (r >= 0 && r == queue.peekNext()) queue.next();
+            else queue.jumpTo(r);
+        }
+        row = r;
+        file = f;
+        next = null; // the engine's queue is empty again
+        queueNext();
+        publish(null);
+    }
+
+    // Lets the engine open and pre-buffer what follows, by the same rules as trackEnded
+    private void queueNext() {
+        if (!engine.isOpen() || state == State.LOADING) return;
+        nextRow = repeat ? row : queue.peekNext();
+        File f = nextRow >= 0 && nextRow < tracks.size() ? tracks.get(nextRow) : null;
+        if (Objects.equals(f, next)) return;
+        next = f;
+        engine.queueNext(f);
+    }
+
+    private void publish(String error) {
+        Snapshot s = new Snapshot(state, row, file, next, repeat, queue.isShuffle(), error);
+        snapshot = s;
+        SwingUtilities.invokeLater(() -> listener.stateChanged(s));
+    }
+}
@@ -0,0 +1,628 @@
+import javax.swing.SwingUtilities;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Everything the player does without a window: the engine and the player core, the library
+// and the list being played, search, metadata, loudness and waveforms, and the open saved
+// playlist, which is read a page at a time and follows the library as it's edited (see
+// PlaylistWriter). Files are known by content as well as path (see Fingerprints), so an
+// import doesn't bring in a second copy of a track, and finds tracks whose files were moved.
+// MusicPlayer is one client; the local control API is another, and neither needs the other.
+// Like the Swing models it uses, it's driven from the AWT event thread, which runs headless
+// too; listeners are called there as well.
+class PlayerService {
+
+    interface Listener {
+        default void stateChanged(PlayerCore.Snapshot snapshot) {}
+
+        // Durations, tags or availability changed somewhere in the list
+        default void libraryChanged() {}
+
+        default void waveformReady(File file, WaveformSummary summary) {}
+
+        default void importProgress(int filesSeen, int tracksFound) {}
+
+        default void importFinished(int tracksFound, boolean cancelled) {}
+
+        // The open playlist can't be read or saved; edits are kept and retried
+        default void playlistSaveFailed(String message) {}
+
+        // Another page of the open playlist is in the list
+        default void playlistPageLoaded(boolean complete) {}
+
+        // At the end of a findMoved() scan
+        default void movedTracksFound(int count) {}
+    }
+
+    private static final long SHUTDOWN_WAIT_MILLIS = 5000;
+    private static final Metrics.Counter DUPLICATES = Metrics.counter("library.duplicates");
+    private static final Metrics.Counter RELOCATED = Metrics.counter("library.relocated");
+
+    // Imported files waiting for their fingerprints, so they go in in the order they came
+    private static final class Identifying {
+        final boolean add;    // false: only look for moved tracks
+        final Runnable then;  // once this is next
+        List<Fingerprints.Match> matches; // null until fingerprinted
+
+        Identifying(boolean add, Runnable then) {
+            this.add = add;
+            this.then = then;
+        }
+    }
+
+    private final PlaybackEngine engine = new StreamingPlaybackEngine();
+    private final PlayerCore core = new PlayerCore(engine, this::onStateChanged);
+    private final TrackListModel tracks = new TrackListModel();  // the list as shown and played
+    private final TrackListModel library = new TrackListModel(); // everything, for reset
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final Map<File, Integer> rowsOf = new HashMap<>(); // library rows per file, kept with the library
+    private final MetadataCache metadata = new MetadataCache();
+    private final Fingerprints fingerprints = new Fingerprints();
+    private final FileValidator validator = new FileValidator(metadata, fingerprints, this::onAvailabilityChanged);
+    private final TrackAnalyzer analyzer = new TrackAnalyzer(metadata, this::onWaveformReady);
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private PlayerCore.Snapshot last = core.snapshot();
+    private LibraryScanner scanner;
+    private final ArrayDeque<Identifying> identifying = new ArrayDeque<>();
+    private int relocated;          // by the current scan
+    private int userId = -1;        // set by openDefault()
+    private PlaylistWriter writer;  // the open saved playlist, null before open()
+    private final List<PlaylistWriter> writers = new CopyOnWriteArrayList<>(); // open or still flushing, oldest first
+    private int opened;             // counts open() calls, to drop pages meant for an earlier one
+    private boolean loaded = true;  // library holds the whole playlist
+    private boolean paging;         // a page has been asked for and hasn't arrived
+    private final List<Runnable> afterLoad = new ArrayList<>(); // work that needs every row
+    private boolean filtered;       // tracks shows part of the library
+    private int[] shownRows;        // while filtered, the library row of each row of tracks
+    private volatile boolean normalize = true; // read on the decoder thread
+
+    PlayerService() {
+        // The core keeps its own copy of the rows for the play queue; each edit sends it only
+        // the rows that changed
+        tracks.addListDataListener(new ListDataListener() {
+            public void intervalAdded(ListDataEvent e) { core.tracksChanged(e, tracks.slice(e.getIndex0(), e.getIndex1())); }
+            public void intervalRemoved(ListDataEvent e) { core.tracksChanged(e, null); }
+            public void contentsChanged(ListDataEvent e) {
+                // A move is replayed from the event alone
+                core.tracksChanged(e, e instanceof TrackListModel.Moved ? null : tracks.slice(e.getIndex0(), e.getIndex1()));
+            }
+        });
+        // Closed writers finish on their own threads; on the way out, give them time to save
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushOnExit, "playlist-shutdown"));
+        metadata.setListener(this::onMetadataChanged);
+        metadata.preload();
+        // Loudness gains come from the metadata cache; unmeasured tracks play unchanged.
+        // Read when a track starts decoding, so toggling affects the next track.
+        engine.setTrackGain(f -> {
+            if (!normalize) return 0f;
+            TrackInfo info = metadata.get(f);
+            return info == null ? Float.NaN : info.gainDb;
+        });
+    }
+
+    void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    TrackListModel tracks() {
+        return tracks;
+    }
+
+    MetadataCache metadata() {
+        return metadata;
+    }
+
+    FileValidator validator() {
+        return validator;
+    }
+
+    // ---------- Playback ----------
+
+    PlayerCore.Snapshot snapshot() {
+        return core.snapshot();
+    }
+
+    void play(int row) {
+        core.play(row);
+    }
+
+    void togglePause() {
+        core.togglePause();
+    }
+
+    void stop() {
+        core.stop();
+    }
+
+    void next() {
+        if (!tracks.isEmpty()) core.next();
+    }
+
+    void previous() {
+        if (!tracks.isEmpty()) core.previous();
+    }
+
+    void seek(double fraction) {
+        core.seek(fraction);
+    }
+
+    void setShuffle(boolean on) {
+        core.setShuffle(on);
+    }
+
+    void setRepeat(boolean on) {
+        core.setRepeat(on);
+    }
+
+    // 0 to 100, on a perceptual curve; works whether or not the line has MASTER_GAIN
+    void setVolume(int percent) {
+        engine.setVolume(SoftwareGain.perceptual(percent / 100.0f));
+    }
+
+    // Overlap the end of each track with the next; 0 for plain gapless
+    void setCrossfade(float seconds) {
+        engine.setCrossfade(seconds, CrossfadeMixer.Curve.EQUAL_POWER);
+    }
+
+    void setNormalize(boolean on) {
+        normalize = on;
+    }
+
+    long positionMicros() {
+        return engine.getMicrosecondPosition();
+    }
+
+    // The engine's length, or the cached one for streams that don't report it
+    long lengthMicros() {
+        long total = engine.getMicrosecondLength();
+        File f = core.snapshot().file;
+        if (total > 0 || f == null) return total;
+        TrackInfo info = metadata.get(f);
+        return info == null ? 0 : Math.max(0, info.durationMicros);
+    }
+
+    // ---------- Library ----------
+
+    private void append(List<File> files) {
+        if (writer != null) writer.added(library.size(), files);
+        if (filtered) {
+            int shown = shownRows.length;
+            shownRows = Arrays.copyOf(shownRows, shown + files.size());
+            for (int i = 0; i < files.size(); i++) shownRows[shown + i] = library.size() + i;
+        }
+        tracks.addAll(files);
+        library.addAll(files);
+        for (File f : files) {
+            searchIndex.add(f, tagsOf(f));
+            rowsOf.merge(f, 1, Integer::sum);
+        }
+    }
+
+    // Files are fingerprinted and then added (see importTracks); folders are walked by the
+    // scanner. False if a folder import is already running.
+    boolean add(List<File> files, List<File> folders) {
+        if (!files.isEmpty()) importTracks(files, true);
+        return folders.isEmpty() || scan(folders, true);
+    }
+
+    // Walks folders for the files of missing tracks, found by content, and points the tracks
+    // at them, in every playlist; nothing is added. False if an import is already running.
+    boolean findMoved(List<File> folders) {
+        return scan(folders, false);
+    }
+
+    private boolean scan(List<File> folders, boolean add) {
+        if (isImporting()) return false;
+        relocated = 0;
+        scanner = new LibraryScanner(folders, metadata, new LibraryScanner.Listener() {
+            @Override
+            public void tracksFound(List<File> batch) {
+                importTracks(batch, add);
+            }
+
+            @Override
+            public void scanProgress(int filesSeen, int tracksFound) {
+                for (Listener l : listeners) l.importProgress(filesSeen, tracksFound);
+            }
+
+            @Override
+            public void scanFinished(int tracksFound, boolean cancelled) {
+                afterImports(() -> {
+                    for (Listener l : listeners) l.importFinished(tracksFound, cancelled);
+                    if (!add) {
+                        for (Listener l : listeners) l.movedTracksFound(relocated);
+                    }
+                });
+            }
+        });
+        scanner.execute();
+        return true;
+    }
+
+    // Until the last file found is in the list
+    boolean isImporting() {
+        return (scanner != null && !scanner.isDone()) || !identifying.isEmpty();
+    }
+
+    void cancelImport() {
+        if (scanner != null) scanner.cancel(true);
+    }
+
+    // Shows the library tracks whose name, path or tags contain every word of the query;
+    // a blank query shows everything. Searching a partly loaded playlist loads the rest first.
+    void filter(String query) {
+        if (query.trim().isEmpty()) {
+            showAll();
+            return;
+        }
+        whenLoaded(() -> {
+            shownRows = tracks.setAll(library, searchIndex.search(query)); // in playlist order
+            filtered = true;
+        });
+    }
+
+    void showAll() {
+        tracks.setAll(library);
+        filtered = false;
+        shownRows = null;
+    }
+
+    // Imported files go in once they're fingerprinted, in the order they came (see place)
+    private void importTracks(List<File> files, boolean add) {
+        Identifying job = new Identifying(add, null);
+        identifying.addLast(job);
+        fingerprints.identify(files, matches -> {
+            job.matches = matches;
+            placeIdentified();
+        });
+    }
+
+    // Runs then once every file imported so far is in
+    private void afterImports(Runnable then) {
+        Identifying job = new Identifying(false, then);
+        job.matches = List.of();
+        identifying.addLast(job);
+        placeIdentified();
+    }
+
+    // Rows are appended and relocated only with the whole playlist here, so no page that
+    // was read before the change can arrive after it
+    private void placeIdentified() {
+        if (!loaded) {
+            whenLoaded(this::placeIdentified);
+            return;
+        }
+        while (!identifying.isEmpty() && identifying.peekFirst().matches != null) {
+            Identifying job = identifying.pollFirst();
+            place(job.matches, job.add);
+            if (job.then != null) job.then.run();
+        }
+    }
+
+    // Known tracks whose files are gone and that had the content of an imported file are
+    // pointed at it. If adding, a file whose content is already in the list (at its own path,
+    // a copy's, or a moved row's that now points at it) is skipped, and one whose content the
+    // library has under another path goes in under that path, which already has its metadata,
+    // loudness and waveform. Matches are confirmed content, not just equal fingerprints.
+    private void place(List<Fingerprints.Match> matches, boolean add) {
+        for (Fingerprints.Match m : matches) {
+            for (File from : m.movedFrom) relocate(from, m.file);
+        }
+        if (!add) return;
+        Set<File> adding = new LinkedHashSet<>();
+        for (Fingerprints.Match m : matches) {
+            boolean present = rowsOf.containsKey(m.file) || adding.contains(m.file);
+            for (File copy : m.copies) present |= rowsOf.containsKey(copy) || adding.contains(copy);
+            if (present) {
+                if (m.movedFrom.isEmpty()) DUPLICATES.increment(); // else it's the relocated row
+                continue;
+            }
+            File f = m.copies.isEmpty() ? m.file : m.copies.get(0);
+            if (f != m.file) DUPLICATES.increment();
+            adding.add(f); // later files of this import list it as a copy
+        }
+        if (adding.isEmpty()) return;
+        List<File> files = new ArrayList<>(adding);
+        append(files);
+        validator.validate(files);
+    }
+
+    // The track at from turned up at to; its rows here and in every other playlist follow it
+    private void relocate(File from, File to) {
+        RELOCATED.increment();
+        relocated++;
+        if (writer != null) writer.relocated(from, to);
+        int rows = library.replace(from, to);
+        if (rows > 0) {
+            searchIndex.remove(from, rows);
+            searchIndex.add(to, tagsOf(to), rows);
+            rowsOf.remove(from);
+            rowsOf.merge(to, rows, Integer::sum);
+        }
+        tracks.replace(from, to);
+        fingerprints.forget(from);
+        metadata.copyMeasurements(from, to);
+        validator.validate(List.of(to));
+        for (Listener l : listeners) l.libraryChanged();
+    }
+
+    // Rows of the shown list, ascending; they leave the library and the saved playlist too.
+    // Each list is edited in one pass, whatever the number of rows.
+    void remove(int[] rows) {
+        if (rows.length == 0) return;
+        if (Arrays.binarySearch(rows, core.snapshot().row) >= 0) core.stop();
+        int[] at = filtered ? new int[rows.length] : rows;
+        for (int i = 0; i < rows.length; i++) {
+            if (filtered) at[i] = shownRows[rows[i]];
+            File f = tracks.get(rows[i]);
+            searchIndex.remove(f);
+            if (rowsOf.merge(f, -1, Integer::sum) == 0) rowsOf.remove(f);
+        }
+        if (filtered) shownRows = withoutRows(shownRows, rows);
+        tracks.removeAll(rows);
+        library.removeAll(at);
+        if (writer != null) {
+            // A run of adjacent rows at a time, last first, so each index holds as it's replayed
+            for (int end = at.length - 1; end >= 0; ) {
+                int start = end;
+                while (start > 0 && at[start - 1] == at[start] - 1) start--;
+                writer.removed(at[start], end - start + 1);
+                end = start - 1;
+            }
+        }
+    }
+
+    // shownRows without the entries at rows, renumbered for the library without those rows
+    private static int[] withoutRows(int[] shownRows, int[] rows) {
+        int[] kept = new int[shownRows.length - rows.length];
+        int n = 0, removedBelow = 0;
+        for (int i = 0, r = 0; i < shownRows.length; i++) {
+            if (r < rows.length && rows[r] == i) {
+                r++;
+                removedBelow++; // shown rows are in library order, so these are the removed rows below
+                continue;
+            }
+            kept[n++] = shownRows[i] - removedBelow;
+        }
+        return kept;
+    }
+
+    // Reorders the full list; false while a search shows only part of it
+    boolean move(int from, int to) {
+        if (filtered) return false;
+        if (from == to) return true;
+        tracks.move(from, to);
+        library.move(from, to);
+        if (writer != null) writer.moved(from, to);
+        return true;
+    }
+
+    // Edits are saved as they're made; this writes the pending ones now. Completes on the
+    // writer thread once they're stored.
+    CompletableFuture<Void> save() {
+        if (writer == null) return CompletableFuture.failedFuture(new IllegalStateException("No playlist open"));
+        return writer.flushNow();
+    }
+
+    // ---------- Saved playlists ----------
+
+    List<PlaylistStore.Playlist> playlists(int userId) throws SQLException {
+        return new PlaylistStore(Database.get()).playlists(userId);
+    }
+
+    PlaylistStore.Playlist createPlaylist(int userId, String name) throws SQLException {
+        return new PlaylistStore(Database.get()).create(userId, name);
+    }
+
+    void renamePlaylist(int playlistId, String name) throws SQLException {
+        new PlaylistStore(Database.get()).rename(playlistId, name);
+    }
+
+    // Closes it first if it's open, leaving the list empty. While a writer is still at work the
+    // playlist is deleted on a writer thread once it's done, and a failure goes to the listeners.
+    void deletePlaylist(int playlistId) throws SQLException {
+        if (playlistId == openPlaylist()) {
+            PlaylistWriter open = writer;
+            writer = null;
+            clearLibrary();
+            open.closeAndDelete();
+            return;
+        }
+        writers.removeIf(PlaylistWriter::isClosed);
+        if (writers.isEmpty()) {
+            new PlaylistStore(Database.get()).delete(playlistId);
+        } else {
+            startWriter(playlistId, -1).closeAndDelete(); // after the last edits of the others
+        }
+    }
+
+    // -1 if none is open
+    int openPlaylist() {
+        return writer == null ? -1 : writer.playlistId();
+    }
+
+    // Opens the user's first playlist, creating it if they have none; from then on the service
+    // belongs to that user (see user())
+    PlaylistStore.Playlist openDefault(int userId) throws SQLException {
+        PlaylistStore.Playlist p = new PlaylistStore(Database.get()).defaultPlaylist(userId);
+        open(p.id);
+        this.userId = userId;
+        return p;
+    }
+
+    // The logged-in user, -1 if none
+    int user() {
+        return userId;
+    }
+
+    // Replaces the library with a saved playlist, whose edits are saved from then on; returns
+    // how many rows it has. The first page is asked for now and the rest as they're needed
+    // (see loadMore), so a long playlist shows at once.
+    int open(int playlistId) throws SQLException {
+        close(); // the previous playlist's last edits go in first, on its thread (see startWriter)
+        int count;
+        try {
+            count = new PlaylistStore(Database.get()).count(playlistId);
+        } finally {
+            clearLibrary();
+        }
+        int generation = ++opened;
+        writer = startWriter(playlistId, generation);
+        loaded = false;
+        loadMore();
+        return count;
+    }
+
+    // Asks for the next page of the open playlist, unless it's all here or one is on its way.
+    // The list calls this as it's scrolled near the end, and playback as it gets there.
+    void loadMore() {
+        if (writer == null || loaded || paging) return;
+        paging = true;
+        writer.page(library.size(), PlaylistWriter.PAGE_SIZE);
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    // Runs work now if the whole playlist is in the list, otherwise once the rest has arrived
+    private void whenLoaded(Runnable work) {
+        if (loaded) {
+            work.run();
+            return;
+        }
+        afterLoad.add(work);
+        if (!paging) {
+            paging = true;
+            writer.page(library.size(), Integer.MAX_VALUE);
+        }
+    }
+
+    // Lets the playlist go; its writer saves what's pending on its own thread
+    void close() {
+        if (writer == null) return;
+        writer.close();
+        writer = null;
+    }
+
+    // A writer for the playlist that starts once the last one has stopped; its pages are for
+    // the open() numbered generation
+    private PlaylistWriter startWriter(int playlistId, int generation) throws SQLException {
+        writers.removeIf(PlaylistWriter::isClosed);
+        PlaylistWriter previous = writers.isEmpty() ? null : writers.get(writers.size() - 1);
+        PlaylistWriter w = new PlaylistWriter(Database.get(), playlistId, previous, new PlaylistWriter.Listener() {
+            @Override
+            public void pageRead(int index, List<File> files, boolean last) {
+                SwingUtilities.invokeLater(() -> {
+                    if (generation == opened) onPageRead(files, last);
+                });
+            }
+
+            @Override
+            public void failed(SQLException e) {
+                SwingUtilities.invokeLater(() -> {
+                    for (Listener l : listeners) l.playlistSaveFailed(e.getMessage());
+                });
+            }
+        });
+        writers.add(w);
+        return w;
+    }
+
+    // Shutdown hook: every writer flushes, and exit waits up to SHUTDOWN_WAIT_MILLIS for them all
+    private void flushOnExit() {
+        long deadline = System.currentTimeMillis() + SHUTDOWN_WAIT_MILLIS;
+        for (PlaylistWriter w : writers) w.close();
+        for (PlaylistWriter w : writers) {
+            if (!w.awaitClosed(Math.max(1, deadline - System.currentTimeMillis()))) break;
+        }
+    }
+
+    private void clearLibrary() {
+        opened++;
+        tracks.clear();
+        library.clear();
+        searchIndex.clear();
+        rowsOf.clear();
+        filtered = false;
+        shownRows = null;
+        paging = false;
+        loaded = true;
+        afterLoad.clear();
+    }
+
+    private String tagsOf(File f) {
+        TrackInfo info = metadata.get(f);
+        return info == null ? "" : info.tags();
+    }
+
+    // ---------- Events (EDT) ----------
+
+    private void onStateChanged(PlayerCore.Snapshot s) {
+        PlayerCore.Snapshot old = last;
+        last = s;
+        if (s.file != null && !s.file.equals(old.file)) {
+            analyzer.analyze(s.file); // brings the waveform, cached or freshly measured
+            if (metadata.get(s.file) == null) validator.validate(List.of(s.file));
+        }
+        if (s.next != null && !s.next.equals(old.next)) analyzer.analyze(s.next); // usually done before it starts
+        if (s.row >= 0 && s.row >= tracks.size() - PlaylistWriter.PAGE_SIZE / 2) loadMore(); // so the next track is there
+        if (s.error != null) {
+            validator.invalidate(s.file);
+            validator.validate(List.of(s.file));
+        }
+        for (Listener l : listeners) l.stateChanged(s);
+    }
+
+    private void onMetadataChanged(List<TrackInfo> changed) {
+        for (TrackInfo info : changed) {
+            String tags = info.tags();
+            if (!tags.isEmpty()) searchIndex.update(new File(info.path), tags);
+        }
+        for (Listener l : listeners) l.libraryChanged();
+    }
+
+    private void onAvailabilityChanged() {
+        for (Listener l : listeners) l.libraryChanged();
+    }
+
+    // The rows after the last page, in playlist order. Edits made while it was on its way
+    // were applied to the writer's rows after it read these, so they still belong at the end.
+    private void onPageRead(List<File> files, boolean last) {
+        paging = false;
+        library.addAll(files);
+        if (!filtered) tracks.addAll(files);
+        for (File f : files) {
+            searchIndex.add(f, tagsOf(f));
+            rowsOf.merge(f, 1, Integer::sum);
+        }
+        // Missing files stay in the list; the validator marks them once it has checked
+        validator.validate(files);
+        if (last) {
+            loaded = true;
+            List<Runnable> work = new ArrayList<>(afterLoad);
+            afterLoad.clear();
+            for (Runnable r : work) r.run();
+        } else if (!afterLoad.isEmpty()) {
+            paging = true;
+            writer.page(library.size(), Integer.MAX_VALUE);
+        }
+        for (Listener l : listeners) l.playlistPageLoaded(loaded);
+    }
+
+    private void onWaveformReady(File f, WaveformSummary summary) {
+        for (Listener l : listeners) l.waveformReady(f, summary);
+    }
+}
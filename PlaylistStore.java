@@ -0,0 +1,256 @@
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Each user's named playlists and their rows. A row (playlist_entry) points at a shared track
+// row, so a file in ten playlists is stored once. Rows are ordered by position, which may have
+// gaps (see PlaylistWriter). Every operation is a cached statement on the shared connection.
+class PlaylistStore {
+    static final String DEFAULT_NAME = "My Playlist";
+
+    static final class Playlist {
+        final int id;
+        final String name;
+
+        Playlist(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name; // as shown in the combo box
+        }
+    }
+
+    // One stored row of a playlist
+    static final class Entry {
+        long id;       // 0 until inserted
+        long position;
+        final String path;
+
+        Entry(long id, long position, String path) {
+            this.id = id;
+            this.position = position;
+            this.path = path;
+        }
+    }
+
+    private final Database db;
+
+    PlaylistStore(Database db) {
+        this.db = db;
+    }
+
+    // ---------- Playlists ----------
+
+    // Oldest first
+    List<Playlist> playlists(int userId) throws SQLException {
+        synchronized (db) {
+            PreparedStatement ps = db.prepare("SELECT id, name FROM playlist WHERE user_id = ? ORDER BY id");
+            ps.setInt(1, userId);
+            List<Playlist> list = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) list.add(new Playlist(rs.getInt("id"), rs.getString("name")));
+            }
+            return list;
+        }
+    }
+
+    // The user's first playlist, created if they have none
+    Playlist defaultPlaylist(int userId) throws SQLException {
+        synchronized (db) {
+            List<Playlist> list = playlists(userId);
+            return list.isEmpty() ? create(userId, DEFAULT_NAME) : list.get(0);
+        }
+    }
+
+    // Fails with a constraint error if the user already has a playlist by that name
+    Playlist create(int userId, String name) throws SQLException {
+        synchronized (db) {
+            PreparedStatement ps = db.prepare("INSERT INTO playlist (user_id, name) VALUES (?, ?)");
+            ps.setInt(1, userId);
+            ps.setString(2, name);
+            ps.executeUpdate();
+            return new Playlist((int) lastInsertId(), name);
+        }
+    }
+
+    void rename(int playlistId, String name) throws SQLException {
+        synchronized (db) {
+            PreparedStatement ps = db.prepare("UPDATE playlist SET name = ? WHERE id = ?");
+            ps.setString(1, name);
+            ps.setInt(2, playlistId);
+            ps.executeUpdate();
+        }
+    }
+
+    // The playlist and its rows; the tracks stay for other playlists
+    void delete(int playlistId) throws SQLException {
+        db.inTransaction(() -> {
+            PreparedStatement entries = db.prepare("DELETE FROM playlist_entry WHERE playlist_id = ?");
+            entries.setInt(1, playlistId);
+            entries.executeUpdate();
+            PreparedStatement ps = db.prepare("DELETE FROM playlist WHERE id = ?");
+            ps.setInt(1, playlistId);
+            ps.executeUpdate();
+            return null;
+        });
+    }
+
+    int count(int playlistId) throws SQLException {
+        synchronized (db) {
+            PreparedStatement ps = db.prepare("SELECT COUNT(*) FROM playlist_entry WHERE playlist_id = ?");
+            ps.setInt(1, playlistId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    // ---------- Rows ----------
+
+    // The whole playlist in order
+    List<File> load(int playlistId) throws SQLException {
+        List<File> files = new ArrayList<>();
+        for (Entry e : page(playlistId, Long.MIN_VALUE, Integer.MAX_VALUE)) files.add(new File(e.path));
+        return files;
+    }
+
+    // Up to limit rows after the given position, in order. A cursor on the position index:
+    // each page is a range scan starting where the last one ended, however deep into the list.
+    List<Entry> page(int playlistId, long afterPosition, int limit) throws SQLException {
+        synchronized (db) {
+            PreparedStatement ps = db.prepare("SELECT e.id, e.position, t.path FROM playlist_entry e " +
+                    "JOIN track t ON t.id = e.track_id " +
+                    "WHERE e.playlist_id = ? AND e.position > ? ORDER BY e.position LIMIT ?");
+            ps.setInt(1, playlistId);
+            ps.setLong(2, afterPosition);
+            ps.setInt(3, limit);
+            List<Entry> entries = new ArrayList<>(Math.min(limit, 1024));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) entries.add(new Entry(rs.getLong(1), rs.getLong(2), rs.getString(3)));
+            }
+            return entries;
+        }
+    }
+
+    // Replaces the playlist in one transaction, writing only the difference: stored rows are
+    // matched to the new list by path, rows whose position changed are updated, and the rest
+    // are deleted or inserted in batches. Re-saving an unchanged playlist writes nothing.
+    void save(int playlistId, List<File> files) throws SQLException {
+        db.inTransaction(() -> {
+            Map<String, ArrayDeque<Entry>> stored = new HashMap<>();
+            for (Entry e : page(playlistId, Long.MIN_VALUE, Integer.MAX_VALUE)) {
+                stored.computeIfAbsent(e.path, k -> new ArrayDeque<>()).addLast(e);
+            }
+
+            PreparedStatement move = db.prepare("UPDATE playlist_entry SET position = ? WHERE id = ?");
+            PreparedStatement insert = db.prepare("INSERT INTO playlist_entry (playlist_id, track_id, position) VALUES (?, ?, ?)");
+            for (int i = 0; i < files.size(); i++) {
+                String path = files.get(i).getAbsolutePath();
+                long position = (i + 1) * PlaylistWriter.GAP;
+                ArrayDeque<Entry> rows = stored.get(path);
+                Entry row = rows == null ? null : rows.pollFirst();
+                if (row == null) {
+                    insert.setInt(1, playlistId);
+                    insert.setLong(2, trackId(path));
+                    insert.setLong(3, position);
+                    insert.addBatch();
+                } else if (row.position != position) {
+                    move.setLong(1, position);
+                    move.setLong(2, row.id);
+                    move.addBatch();
+                }
+            }
+
+            PreparedStatement delete = db.prepare("DELETE FROM playlist_entry WHERE id = ?");
+            for (ArrayDeque<Entry> leftover : stored.values()) {
+                for (Entry row : leftover) {
+                    delete.setLong(1, row.id);
+                    delete.addBatch();
+                }
+            }
+            delete.executeBatch();
+            move.executeBatch();
+            insert.executeBatch();
+            return null;
+        });
+    }
+
+    // Adds one row and returns its id
+    long insert(int playlistId, String path, long position) throws SQLException {
+        synchronized (db) {
+            PreparedStatement ps = db.prepare("INSERT INTO playlist_entry (playlist_id, track_id, position) VALUES (?, ?, ?)");
+            ps.setInt(1, playlistId);
+            ps.setLong(2, trackId(path));
+            ps.setLong(3, position);
+            ps.executeUpdate();
+            return lastInsertId();
+        }
+    }
+
+    // The shared track row for path, added the first time it's seen
+    long trackId(String path) throws SQLException {
+        synchronized (db) {
+            PreparedStatement find = db.prepare("SELECT id FROM track WHERE path = ?");
+            find.setString(1, path);
+            try (ResultSet rs = find.executeQuery()) {
+                if (rs.next()) return rs.getLong(1);
+            }
+            PreparedStatement add = db.prepare("INSERT INTO track (path, name) VALUES (?, ?)");
+            add.setString(1, path);
+            add.setString(2, new File(path).getName());
+            add.executeUpdate();
+            return lastInsertId();
+        }
+    }
+
+    // Points every playlist's rows for the track at from to the one at to. If to has no track
+    // row yet, from's row takes its path; otherwise the rows move over and from's row goes.
+    void relocate(String from, String to) throws SQLException {
+        db.inTransaction(() -> {
+            PreparedStatement find = db.prepare("SELECT id FROM track WHERE path = ?");
+            find.setString(1, from);
+            long oldId;
+            try (ResultSet rs = find.executeQuery()) {
+                if (!rs.next()) return null;
+                oldId = rs.getLong(1);
+            }
+            find.setString(1, to);
+            Long newId = null;
+            try (ResultSet rs = find.executeQuery()) {
+                if (rs.next()) newId = rs.getLong(1);
+            }
+            if (newId == null) {
+                PreparedStatement ps = db.prepare("UPDATE track SET path = ?, name = ? WHERE id = ?");
+                ps.setString(1, to);
+                ps.setString(2, new File(to).getName());
+                ps.setLong(3, oldId);
+                ps.executeUpdate();
+                return null;
+            }
+            PreparedStatement entries = db.prepare("UPDATE playlist_entry SET track_id = ? WHERE track_id = ?");
+            entries.setLong(1, newId);
+            entries.setLong(2, oldId);
+            entries.executeUpdate();
+            PreparedStatement ps = db.prepare("DELETE FROM track WHERE id = ?");
+            ps.setLong(1, oldId);
+            ps.executeUpdate();
+            return null;
+        });
+    }
+
+    private long lastInsertId() throws SQLException {
+        try (ResultSet rs = db.prepare("SELECT last_insert_rowid()").executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,447 @@
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// The open playlist's link to the database, on one "playlist-writer" thread that both reads and
+// writes it, so the list on screen and the stored rows can't drift apart.
+//
+// Reads are paged: the service asks for rows from an index on, and they're read from the table
+// a page at a time (a cursor on position) only as far as needed, so a 100k-row playlist shows
+// its first screen at once and the rest arrives as the user scrolls.
+//
+// Writes are behind: the service reports each edit as it makes it (rows added, removed, moved)
+// and returns at once; nothing on the EDT touches the database. Edits are replayed on the rows
+// read so far, and once they stop for DEBOUNCE (or MAX_DELAY after the first) only the rows that
+// changed are written, in one transaction. close() hands the thread what's left to flush and
+// returns; the service's shutdown hook waits for writers still flushing (see awaitClosed), so
+// a crash loses at most the last fraction of a second.
+//
+// Positions only need to keep the rows in order, so they are allowed gaps: a removal deletes
+// its rows without renumbering the rest, and inserted or moved rows take numbers from the gap
+// they land in (see positions()). Rows not read yet are never touched.
+class PlaylistWriter {
+    static final long GAP = 1024; // between positions given out at the ends of the list
+    static final int PAGE_SIZE = 500;
+    private static final long DEBOUNCE_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final long MAX_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final Histogram FLUSH_TIME = Metrics.histogram("playlist.flush");
+    private static final Histogram PAGE_TIME = Metrics.histogram("playlist.page");
+    private static final Metrics.Counter EDITS = Metrics.counter("playlist.edits");
+
+    // On the writer thread
+    interface Listener {
+        // Rows from index on, answering page(); last once the whole playlist has been handed out
+        void pageRead(int index, List<File> files, boolean last);
+
+        // Once per run of failures; writes keep being retried
+        void failed(SQLException e);
+    }
+
+    private static final int ADD = 0, REMOVE = 1, MOVE = 2, PAGE = 3, RELOCATE = 4;
+
+    private static final class Edit {
+        final int kind;
+        final int index;
+        final int arg; // REMOVE: row count, MOVE: destination, PAGE: row count
+        final List<File> files; // RELOCATE: from, to
+        final long nanos = System.nanoTime();
+
+        Edit(int kind, int index, int arg, List<File> files) {
+            this.kind = kind;
+            this.index = index;
+            this.arg = arg;
+            this.files = files;
+        }
+    }
+
+    private final Database db;
+    private final PlaylistStore store;
+    private final int playlistId;
+    private final Listener listener;
+    private final ConcurrentLinkedQueue<Edit> pending = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<CompletableFuture<Void>> waiters = new ConcurrentLinkedQueue<>();
+    private volatile boolean urgent;
+    private volatile boolean closed;
+    private volatile boolean deleting;
+    private final Thread thread;
+    private PlaylistWriter previous; // writer thread only; dropped once it has stopped
+
+    // Writer thread only
+    private List<PlaylistStore.Entry> rows = new ArrayList<>(); // the rows read so far, edits applied
+    private boolean complete;                   // rows holds the whole playlist
+    private long readPosition = Long.MIN_VALUE; // the cursor: rows not read yet are after it
+    private final List<Long> deleted = new ArrayList<>(); // ids of removed rows, not yet deleted
+    private long firstEditNanos;                // of the edits not yet written; 0 if none
+    private long lastEditNanos;
+    private boolean resync;                     // the last write failed: rows no longer match the table
+    private boolean failing;
+    private long failedNanos;
+
+    // Nothing is read or written until previous (null for none) has stopped, so a playlist
+    // reopened or deleted right after it was closed sees its last edits
+    PlaylistWriter(Database db, int playlistId, PlaylistWriter previous, Listener listener) {
+        this.db = db;
+        this.store = new PlaylistStore(db);
+        this.playlistId = playlistId;
+        this.previous = previous;
+        this.listener = listener;
+        thread = new Thread(this::run, "playlist-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int playlistId() {
+        return playlistId;
+    }
+
+    // ---------- Requests (any one thread, in the order the list was changed) ----------
+
+    // count rows from index on, which must be the number of rows handed out so far
+    void page(int index, int count) {
+        pending.add(new Edit(PAGE, index, count, null));
+        LockSupport.unpark(thread);
+    }
+
+    void added(int index, List<File> files) {
+        if (!files.isEmpty()) record(new Edit(ADD, index, 0, new ArrayList<>(files)));
+    }
+
+    void removed(int index, int count) {
+        if (count > 0) record(new Edit(REMOVE, index, count, null));
+    }
+
+    void moved(int from, int to) {
+        if (from != to) record(new Edit(MOVE, from, to, null));
+    }
+
+    // The file at from has moved to to: its rows, in this playlist and every other, now point
+    // there. Written at once, not after the debounce.
+    void relocated(File from, File to) {
+        pending.add(new Edit(RELOCATE, 0, 0, List.of(from, to)));
+        LockSupport.unpark(thread);
+    }
+
+    // Writes now instead of after the debounce; completes once everything recorded so far is stored
+    CompletableFuture<Void> flushNow() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        waiters.add(done);
+        urgent = true;
+        LockSupport.unpark(thread);
+        return done;
+    }
+
+    // The thread flushes what's pending and stops; doesn't wait for it
+    void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+    }
+
+    // The thread drops what's pending, deletes the playlist and stops; doesn't wait for it.
+    // A failure goes to the listener.
+    void closeAndDelete() {
+        deleting = true;
+        close();
+    }
+
+    // True once the thread has stopped, waiting up to millis for it
+    boolean awaitClosed(long millis) {
+        try {
+            thread.join(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return isClosed();
+    }
+
+    boolean isClosed() {
+        return !thread.isAlive();
+    }
+
+    private void record(Edit edit) {
+        EDITS.increment();
+        pending.add(edit);
+        LockSupport.unpark(thread);
+    }
+
+    // ---------- Writer thread ----------
+
+    private void run() {
+        if (previous != null) {
+            while (!previous.isClosed()) previous.awaitClosed(0);
+            previous = null;
+        }
+        while (true) {
+            boolean closing = closed;
+            if (closing && deleting) {
+                delete();
+                return;
+            }
+            takePending();
+            long now = System.nanoTime();
+            long due = dueNanos();
+            if (closing || urgent || (due != Long.MAX_VALUE && now - due >= 0)) {
+                urgent = false;
+                flush();
+                if (closing) return;
+            } else if (due == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, due - now);
+            }
+        }
+    }
+
+    // Applies the edits to rows and answers page requests, in order
+    private void takePending() {
+        for (Edit e; (e = pending.poll()) != null; ) {
+            try {
+                if (e.kind == PAGE) {
+                    long start = System.nanoTime();
+                    int end = e.arg > Integer.MAX_VALUE - e.index ? Integer.MAX_VALUE : e.index + e.arg;
+                    readTo(end);
+                    end = Math.min(end, rows.size());
+                    List<File> files = new ArrayList<>(Math.max(0, end - e.index));
+                    for (int i = e.index; i < end; i++) files.add(new File(rows.get(i).path));
+                    PAGE_TIME.recordSince(start);
+                    listener.pageRead(e.index, files, complete && end == rows.size());
+                } else if (e.kind == RELOCATE) {
+                    relocate(e.files.get(0).getAbsolutePath(), e.files.get(1).getAbsolutePath());
+                } else {
+                    apply(e);
+                    if (firstEditNanos == 0) firstEditNanos = e.nanos;
+                    lastEditNanos = e.nanos;
+                }
+            } catch (SQLException ex) {
+                fail(ex); // a page that couldn't be read is asked for again on the next scroll
+            } catch (RuntimeException ex) {
+                // An edit that doesn't fit the rows means they're out of step with the list
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    // When the next write is due, or Long.MAX_VALUE if there's nothing to write
+    private long dueNanos() {
+        long due;
+        if (firstEditNanos != 0) {
+            due = Math.min(lastEditNanos + DEBOUNCE_NANOS, firstEditNanos + MAX_DELAY_NANOS);
+        } else if (resync) {
+            due = failedNanos + RETRY_NANOS;
+        } else {
+            return Long.MAX_VALUE;
+        }
+        return failing ? Math.max(due, failedNanos + RETRY_NANOS) : due;
+    }
+
+    private void flush() {
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        for (CompletableFuture<Void> f; (f = waiters.poll()) != null; ) done.add(f);
+        takePending(); // whatever was recorded before those flushNow calls
+        try {
+            if (resync || firstEditNanos != 0) {
+                long start = System.nanoTime();
+                write();
+                FLUSH_TIME.recordSince(start);
+                firstEditNanos = 0;
+            }
+            failing = false;
+            for (CompletableFuture<Void> f : done) f.complete(null);
+        } catch (SQLException e) {
+            // rows already holds the edits; the next try rewrites the table from it
+            resync = true;
+            fail(e);
+            for (CompletableFuture<Void> f : done) f.completeExceptionally(e);
+        }
+    }
+
+    private void delete() {
+        try {
+            store.delete(playlistId);
+            for (CompletableFuture<Void> f; (f = waiters.poll()) != null; ) f.complete(null);
+        } catch (SQLException e) {
+            fail(e);
+            for (CompletableFuture<Void> f; (f = waiters.poll()) != null; ) f.completeExceptionally(e);
+        }
+    }
+
+    private void fail(SQLException e) {
+        failedNanos = System.nanoTime();
+        if (failing) return;
+        failing = true;
+        e.printStackTrace();
+        listener.failed(e);
+    }
+
+    private void apply(Edit e) {
+        switch (e.kind) {
+            case ADD:
+                List<PlaylistStore.Entry> added = new ArrayList<>(e.files.size());
+                for (File f : e.files) added.add(new PlaylistStore.Entry(0, 0, f.getAbsolutePath()));
+                rows.addAll(e.index, added);
+                break;
+            case REMOVE:
+                List<PlaylistStore.Entry> removed = rows.subList(e.index, e.index + e.arg);
+                for (PlaylistStore.Entry r : removed) {
+                    if (r.id != 0) deleted.add(r.id);
+                }
+                removed.clear();
+                break;
+            case MOVE:
+                rows.add(e.arg, rows.remove(e.index));
+                break;
+            default:
+                throw new IllegalStateException("Unknown edit " + e.kind);
+        }
+    }
+
+    private void relocate(String from, String to) {
+        for (int i = 0; i < rows.size(); i++) {
+            PlaylistStore.Entry r = rows.get(i);
+            if (r.path.equals(from)) rows.set(i, new PlaylistStore.Entry(r.id, r.position, to));
+        }
+        try {
+            store.relocate(from, to);
+        } catch (SQLException e) {
+            // The rows have the new path; rewriting the table from them fixes this playlist
+            resync = true;
+            fail(e);
+        }
+    }
+
+    // Reads pages until rows has at least n rows or the whole playlist
+    private void readTo(int n) throws SQLException {
+        while (!complete && rows.size() < n) readPage();
+    }
+
+    private void readPage() throws SQLException {
+        List<PlaylistStore.Entry> page = store.page(playlistId, readPosition, PAGE_SIZE);
+        rows.addAll(page);
+        if (!page.isEmpty()) readPosition = page.get(page.size() - 1).position;
+        if (page.size() < PAGE_SIZE) complete = true;
+    }
+
+    private void write() throws SQLException {
+        if (resync) {
+            // Whatever the failed write left behind, the full diff brings the table back in line
+            readTo(Integer.MAX_VALUE);
+            List<File> files = new ArrayList<>(rows.size());
+            for (PlaylistStore.Entry r : rows) files.add(new File(r.path));
+            store.save(playlistId, files);
+            deleted.clear();
+            rows = store.page(playlistId, Long.MIN_VALUE, Integer.MAX_VALUE);
+            readPosition = rows.isEmpty() ? Long.MIN_VALUE : rows.get(rows.size() - 1).position;
+            complete = true;
+            resync = false;
+            return;
+        }
+        long[] target;
+        while ((target = positions(rows, complete, readPosition)) == null) readPage();
+        long[] positions = target;
+        db.inTransaction(() -> {
+            PreparedStatement delete = db.prepare("DELETE FROM playlist_entry WHERE id = ?");
+            for (long id : deleted) {
+                delete.setLong(1, id);
+                delete.addBatch();
+            }
+            delete.executeBatch();
+
+            PreparedStatement move = db.prepare("UPDATE playlist_entry SET position = ? WHERE id = ?");
+            for (int i = 0; i < rows.size(); i++) {
+                PlaylistStore.Entry r = rows.get(i);
+                if (r.id == 0 || r.position == positions[i]) continue;
+                move.setLong(1, positions[i]);
+                move.setLong(2, r.id);
+                move.addBatch();
+            }
+            move.executeBatch();
+
+            // One at a time, to learn each new row's id
+            for (int i = 0; i < rows.size(); i++) {
+                PlaylistStore.Entry r = rows.get(i);
+                if (r.id == 0) r.id = store.insert(playlistId, r.path, positions[i]);
+            }
+            return null;
+        });
+        // Only once committed; after a rollback resync rereads the lot
+        deleted.clear();
+        for (int i = 0; i < rows.size(); i++) rows.get(i).position = positions[i];
+    }
+
+    // A position for every row read, in list order, changing as few stored ones as possible: the
+    // longest run of rows whose stored positions already increase keeps them, and the others
+    // are spread evenly through the gaps between those. Where a gap is too narrow for the rows
+    // that go in it, the kept row after it is given up to widen it. Until the whole playlist has
+    // been read (complete), everything must stay at or below the cursor; null if that's too
+    // tight, in which case the caller reads another page and asks again. Rows with id 0 are new.
+    static long[] positions(List<PlaylistStore.Entry> rows, boolean complete, long readPosition) {
+        int n = rows.size();
+        boolean[] keep = longestIncreasing(rows);
+        long[] target = new long[n];
+        boolean hasLow = false;
+        long low = 0; // position of the last kept row
+        int i = 0;
+        while (i < n) {
+            if (keep[i]) {
+                low = target[i] = rows.get(i).position;
+                hasLow = true;
+                i++;
+                continue;
+            }
+            int end = i;
+            while (true) {
+                while (end < n && !keep[end]) end++;
+                int count = end - i;
+                if (end == n && complete) {
+                    long base = hasLow ? low + GAP : 0;
+                    for (int k = 0; k < count; k++) target[i + k] = base + k * GAP;
+                    break;
+                }
+                long high = end < n ? rows.get(end).position : readPosition + 1;
+                if (!hasLow) {
+                    for (int k = 0; k < count; k++) target[i + k] = high - (count - k) * GAP;
+                    break;
+                }
+                if (high - low > count) {
+                    long step = (high - low) / (count + 1);
+                    for (int k = 0; k < count; k++) target[i + k] = low + (k + 1) * step;
+                    break;
+                }
+                if (end == n) return null;
+                keep[end] = false;
+            }
+            i = end;
+        }
+        return target;
+    }
+
+    // Marks a longest strictly increasing run of stored positions (patience sorting, n log n)
+    private static boolean[] longestIncreasing(List<PlaylistStore.Entry> rows) {
+        int n = rows.size();
+        int[] tails = new int[n]; // tails[k]: the row ending the best run of length k + 1 so far
+        int[] prev = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            PlaylistStore.Entry r = rows.get(i);
+            if (r.id == 0) continue;
+            int lo = 0, hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (rows.get(tails[mid]).position < r.position) lo = mid + 1;
+                else hi = mid;
+            }
+            prev[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) length++;
+        }
+        boolean[] keep = new boolean[n];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = prev[i]) keep[i] = true;
+        return keep;
+    }
+}
@@ -0,0 +1,89 @@
+import javax.swing.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+// One clock for everything that follows the playback position. It samples the engine's
+// position (frames written to the line minus what's still buffered) on the EDT and hands
+// it to each subscriber at that subscriber's own rate, so a progress bar can run at 60 fps
+// while a label updates a few times a second. The underlying Swing Timer coalesces ticks,
+// so a busy EDT gets one catch-up update rather than a burst. Nothing is allocated per tick.
+class PositionClock {
+
+    interface Listener {
+        // On the EDT. lengthMicros is 0 when unknown.
+        void positionChanged(long micros, long lengthMicros);
+    }
+
+    private static final class Subscription {
+        final Listener listener;
+        final long intervalNanos;
+        long lastNanos;
+        long lastMicros = -1;
+        long lastLength = -1;
+
+        Subscription(Listener listener, long intervalNanos) {
+            this.listener = listener;
+            this.intervalNanos = intervalNanos;
+        }
+    }
+
+    private final LongSupplier position;
+    private final LongSupplier length;
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private final Timer timer;
+
+    PositionClock(LongSupplier position, LongSupplier length) {
+        this.position = position;
+        this.length = length;
+        timer = new Timer(1000, e -> tick());
+        timer.setCoalesce(true);
+    }
+
+    // Call on the EDT. The clock ticks at the fastest subscriber's rate.
+    void subscribe(int hz, Listener listener) {
+        Subscription s = new Subscription(listener, 1_000_000_000L / hz);
+        subscriptions.add(s);
+        int delay = Math.max(1, 1000 / hz);
+        if (subscriptions.size() == 1 || delay < timer.getDelay()) {
+            timer.setDelay(delay);
+            timer.setInitialDelay(delay);
+        }
+    }
+
+    void start() {
+        if (!timer.isRunning()) timer.start();
+    }
+
+    void stop() {
+        timer.stop();
+    }
+
+    // Pushes the current position to every subscriber now, e.g. after a seek or track change
+    void refresh() {
+        publish(true);
+    }
+
+    private void tick() {
+        publish(false);
+    }
+
+    private void publish(boolean force) {
+        long now = System.nanoTime();
+        long micros = position.getAsLong();
+        long len = length.getAsLong();
+        // Ticks jitter around the timer period; half a period of slack keeps a subscriber
+        // at the tick rate from skipping every other tick
+        long slack = timer.getDelay() * 500_000L;
+        for (int i = 0; i < subscriptions.size(); i++) {
+            Subscription s = subscriptions.get(i);
+            if (!force && now - s.lastNanos < s.intervalNanos - slack) continue;
+            s.lastNanos = now;
+            // Paused or stalled: nothing new to draw
+            if (!force && micros == s.lastMicros && len == s.lastLength) continue;
+            s.lastMicros = micros;
+            s.lastLength = len;
+            s.listener.positionChanged(micros, len);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+// An append-only text file that's moved to FILE.1 (replacing the previous one) once it passes
+// the size limit, so a long-running player keeps the recent history in bounded space.
+class RollingLog {
+    private final File file;
+    private final long limitBytes;
+
+    RollingLog(File file, long limitBytes) {
+        this.file = file;
+        this.limitBytes = limitBytes;
+    }
+
+    synchronized void append(String text) {
+        try {
+            if (file.length() > limitBytes) {
+                File old = new File(file.getPath() + ".1");
+                if (old.exists() && !old.delete()) throw new IOException("Can't delete " + old);
+                if (!file.renameTo(old)) throw new IOException("Can't roll " + file);
+            }
+            try (Writer w = new FileWriter(file, true)) {
+                w.write(text);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// In-memory trigram index over the library: track name, full path and any extra text such as
+// tags. A query matches when every whitespace-separated word occurs (case-insensitively)
+// somewhere in that text. Trigram postings narrow the candidates, then each candidate is
+// checked with a plain substring test, so hash collisions can't produce false hits.
+//
+// Documents get increasing ids, which keeps every postings list sorted. Removing or
+// re-indexing a file only tombstones its old id; the index is rebuilt once the dead ids
+// outnumber the live ones.
+class SearchIndex {
+    private final List<File> files = new ArrayList<>();     // by doc id, null once removed
+    private final List<String> texts = new ArrayList<>();   // lowercased searchable text
+    private final Map<File, Integer> ids = new HashMap<>();
+    private final Map<File, Integer> refs = new HashMap<>(); // the same file can be listed twice
+    private final PostingsTable postings = new PostingsTable();
+    private int dead;
+
+    private static final int SMALL_ENOUGH = 64;
+
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+
+    // Open-addressing map from trigram to postings, so indexing doesn't box every key
+    private static final class PostingsTable {
+        private int[] keys = new int[1024];
+        private Postings[] values = new Postings[1024];
+        private int size;
+
+        Postings get(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+            }
+            return null;
+        }
+
+        Postings getOrCreate(int key) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+            }
+            Postings p = new Postings();
+            keys[i] = key;
+            values[i] = p;
+            if (++size * 2 > keys.length) grow();
+            return p;
+        }
+
+        void clear() {
+            keys = new int[1024];
+            values = new Postings[1024];
+            size = 0;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new Postings[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] == null) continue;
+                int i = mix(oldKeys[j]) & mask;
+                while (values[i] != null) i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    void add(File file) {
+        add(file, "");
+    }
+
+    // One more row lists file; it's indexed, with extra, the first time
+    void add(File file, String extra) {
+        add(file, extra, 1);
+    }
+
+    // count more rows list file
+    void add(File file, String extra, int count) {
+        if (refs.merge(file, count, Integer::sum) == count) index(file, extra);
+    }
+
+    // Re-indexes file with new extra text if it's indexed and the text changed
+    void update(File file, String extra) {
+        Integer id = ids.get(file);
+        if (id == null) return;
+        String text = (file.getAbsolutePath() + '\n' + extra).toLowerCase(Locale.ROOT);
+        if (text.equals(texts.get(id))) return;
+        tombstone(id);
+        index(file, extra);
+    }
+
+    // One row fewer lists file; it leaves the index with the last
+    void remove(File file) {
+        remove(file, 1);
+    }
+
+    void remove(File file, int count) {
+        Integer left = refs.computeIfPresent(file, (f, n) -> n > count ? n - count : null);
+        if (left != null) return;
+        Integer id = ids.remove(file);
+        if (id != null) tombstone(id);
+    }
+
+    private void index(File file, String extra) {
+        int id = files.size();
+        // The path already ends with the track name
+        String text = (file.getAbsolutePath() + '\n' + extra).toLowerCase(Locale.ROOT);
+        files.add(file);
+        texts.add(text);
+        ids.put(file, id);
+        indexTrigrams(id, text);
+    }
+
+    void clear() {
+        files.clear();
+        texts.clear();
+        ids.clear();
+        refs.clear();
+        postings.clear();
+        dead = 0;
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    // Matches in the order the files were (last) indexed, which isn't the playlist's: re-indexing
+    // after a tag change moves a file to the end. Each file comes once however often it's listed.
+    List<File> search(String query) {
+        String[] words = query.toLowerCase(Locale.ROOT).trim().split("\\s+");
+        List<File> hits = new ArrayList<>();
+        if (words.length == 0 || words[0].isEmpty()) return hits;
+
+        int[] candidates = candidates(words);
+        if (candidates == null) {
+            // Every word is shorter than a trigram: check all live documents
+            for (int id = 0; id < files.size(); id++) {
+                if (files.get(id) != null && matches(texts.get(id), words)) hits.add(files.get(id));
+            }
+        } else {
+            for (int id : candidates) {
+                if (files.get(id) != null && matches(texts.get(id), words)) hits.add(files.get(id));
+            }
+        }
+        return hits;
+    }
+
+    private static boolean matches(String text, String[] words) {
+        for (String w : words) {
+            if (!text.contains(w)) return false;
+        }
+        return true;
+    }
+
+    // Intersection of trigram postings for the query, smallest list first. Overlapping
+    // trigrams add little, so each word contributes every third one plus its last; the
+    // intersection also stops early once the candidates are few enough to just check.
+    // null means no word was long enough to use the index.
+    private int[] candidates(String[] words) {
+        List<Postings> lists = new ArrayList<>();
+        for (String w : words) {
+            if (w.length() < 3) continue;
+            int last = w.length() - 3;
+            for (int i = 0; ; i += 3) {
+                Postings p = postings.get(trigram(w, Math.min(i, last)));
+                if (p == null) return new int[0];
+                if (!lists.contains(p)) lists.add(p);
+                if (i >= last) break;
+            }
+        }
+        if (lists.isEmpty()) return null;
+        lists.sort((a, b) -> Integer.compare(a.size, b.size));
+
+        int[] result = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+        int n = result.length;
+        for (int l = 1; l < lists.size() && n > SMALL_ENOUGH; l++) {
+            Postings p = lists.get(l);
+            int kept = 0;
+            if (p.size > n * 16) {
+                // Much longer list: binary-search each remaining candidate in it
+                int from = 0;
+                for (int i = 0; i < n; i++) {
+                    int pos = Arrays.binarySearch(p.ids, from, p.size, result[i]);
+                    if (pos >= 0) {
+                        result[kept++] = result[i];
+                        from = pos + 1;
+                    } else {
+                        from = -pos - 1;
+                    }
+                }
+            } else {
+                for (int i = 0, j = 0; i < n && j < p.size; ) {
+                    if (result[i] < p.ids[j]) i++;
+                    else if (result[i] > p.ids[j]) j++;
+                    else {
+                        result[kept++] = result[i];
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            n = kept;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private void indexTrigrams(int id, String text) {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            Postings p = postings.getOrCreate(trigram(text, i));
+            // A trigram repeated within one text is only listed once
+            if (p.size == 0 || p.ids[p.size - 1] != id) p.add(id);
+        }
+    }
+
+    private static int trigram(String s, int i) {
+        return (s.charAt(i) * 31 + s.charAt(i + 1)) * 31 + s.charAt(i + 2);
+    }
+
+    private void tombstone(int id) {
+        files.set(id, null);
+        texts.set(id, null);
+        if (++dead > ids.size()) rebuild();
+    }
+
+    private void rebuild() {
+        List<File> liveFiles = new ArrayList<>();
+        List<String> liveTexts = new ArrayList<>();
+        for (int id = 0; id < files.size(); id++) {
+            if (files.get(id) != null) {
+                liveFiles.add(files.get(id));
+                liveTexts.add(texts.get(id));
+            }
+        }
+        files.clear();
+        texts.clear();
+        postings.clear();
+        ids.clear();
+        dead = 0;
+        for (int i = 0; i < liveFiles.size(); i++) {
+            files.add(liveFiles.get(i));
+            texts.add(liveTexts.get(i));
+            ids.put(liveFiles.get(i), i);
+            indexTrigrams(i, liveTexts.get(i));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import javax.sound.sampled.AudioFormat;
+
+// Volume applied to the samples themselves, so it works on lines without a MASTER_GAIN
+// control. A change is ramped across the next buffer instead of jumping, which would click
+// ("zipper noise" when dragging the slider). The ramp is a per-sample multiply; a steady
+// gain of 1 skips the buffer entirely.
+final class SoftwareGain {
+    private volatile float target = 1f;
+    private float current = 1f; // audio thread only
+
+    // Slider position in [0, 1] to a linear gain. Loudness is roughly the cube root of
+    // amplitude, so a cubic makes equal slider steps sound like equal loudness steps
+    // (half way is about -18 dB instead of the -6 dB a linear mapping gives).
+    static float perceptual(float position) {
+        float p = Math.max(0f, Math.min(1f, position));
+        return p * p * p;
+    }
+
+    static float dbToLinear(float db) {
+        return (float) Math.pow(10, db / 20);
+    }
+
+    void setTarget(float gain) {
+        target = gain;
+    }
+
+    // Call from the thread that owns the output
+    void process(byte[] b, int off, int len, AudioFormat format) {
+        float from = current, to = target;
+        current = to;
+        if (from == 1f && to == 1f) return;
+        scale(b, off, len, format, from, to);
+    }
+
+    // Multiplies every sample, ramping linearly from fromGain at the first frame to toGain at
+    // the last. Formats PcmSamples can't handle pass through unchanged.
+    static void scale(byte[] b, int off, int len, AudioFormat format, float fromGain, float toGain) {
+        if (!PcmSamples.supports(format)) return;
+        int bytes = format.getSampleSizeInBits() / 8;
+        int channels = format.getChannels();
+        int frames = len / format.getFrameSize();
+        boolean big = format.isBigEndian();
+        boolean unsigned = PcmSamples.isUnsigned(format);
+        float step = frames > 1 ? (toGain - fromGain) / (frames - 1) : 0f;
+        for (int f = 0, i = off; f < frames; f++) {
+            float gain = fromGain + step * f;
+            for (int c = 0; c < channels; c++, i += bytes) {
+                PcmSamples.put(b, i, bytes, big, unsigned, PcmSamples.get(b, i, bytes, big, unsigned) * gain);
+            }
+        }
+    }
+}
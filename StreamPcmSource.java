@@ -0,0 +1,79 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+
+// PcmSource over AudioSystem's decoders. Non-PCM encodings are converted to 16-bit signed PCM.
+// Seeking forward skips, seeking backward reopens the file.
+class StreamPcmSource implements PcmSource {
+    private final File file;
+    private AudioInputStream stream;
+    private AudioFormat format;
+    private long frameLength;
+    private long framePos;
+
+    StreamPcmSource(File file) throws IOException, UnsupportedAudioFileException {
+        this.file = file;
+        reopen();
+    }
+
+    private void reopen() throws IOException, UnsupportedAudioFileException {
+        if (stream != null) stream.close();
+        AudioInputStream in = AudioSystem.getAudioInputStream(file);
+        AudioFormat src = in.getFormat();
+        if (src.getEncoding() != AudioFormat.Encoding.PCM_SIGNED
+                && src.getEncoding() != AudioFormat.Encoding.PCM_UNSIGNED) {
+            AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                    src.getSampleRate(), 16, src.getChannels(), src.getChannels() * 2,
+                    src.getSampleRate(), false);
+            in = AudioSystem.getAudioInputStream(pcm, in);
+        }
+        stream = in;
+        format = in.getFormat();
+        frameLength = in.getFrameLength();
+        framePos = 0;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public long getFrameLength() {
+        return frameLength;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int frameSize = format.getFrameSize();
+        int n = stream.read(b, off, len - (len % frameSize));
+        if (n > 0) framePos += n / frameSize;
+        return n;
+    }
+
+    @Override
+    public void seekFrame(long frame) throws IOException {
+        if (frame < framePos) {
+            try {
+                reopen();
+            } catch (UnsupportedAudioFileException e) {
+                throw new IOException(e);
+            }
+        }
+        long toSkip = (frame - framePos) * format.getFrameSize();
+        while (toSkip > 0) {
+            long skipped = stream.skip(toSkip);
+            if (skipped <= 0) break;
+            toSkip -= skipped;
+        }
+        framePos = frame - toSkip / format.getFrameSize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+}
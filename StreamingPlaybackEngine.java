@@ -0,0 +1,745 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Streams PCM to a SourceDataLine instead of decoding the whole file into a Clip.
+// A decoder thread reads ahead into a fixed-size ring; a feeder thread drains the ring into
+// the line. Memory use and time-to-first-audio don't depend on the length of the track.
+//
+// Gapless: queueNext() opens and pre-buffers the following track on a look-ahead thread.
+// When the current source runs out the decoder carries straight on with the queued one, so
+// the line never sees a gap. The feeder reports the change once the line has actually
+// played up to the boundary.
+//
+// Crossfade: with a crossfade set, the decoder switches to the queued track that many
+// seconds before the current one ends and keeps reading the old one alongside it, mixing
+// both into the ring until the old one runs out.
+//
+// Gain: each track's normalization gain is applied as it's decoded, so a crossfade mixes
+// two already-levelled tracks. The volume is applied by the feeder, just before the line,
+// so a change is heard within one line buffer.
+class StreamingPlaybackEngine implements PlaybackEngine {
+    private static final int RING_BYTES = 512 * 1024;
+    private static final int CHUNK_BYTES = 16 * 1024;
+    private static final int PREROLL_BYTES = 64 * 1024;
+    private static final float LINE_BUFFER_SECONDS = 0.25f;
+    private static final Histogram DECODE_CHUNK = Metrics.histogram("decode.chunk");
+    private static final Metrics.Counter DECODE_FRAMES = Metrics.counter("decode.frames");
+    private static final Metrics.Counter UNDERRUNS = Metrics.counter("audio.underruns");
+
+    private final PcmRingBuffer ring = new PcmRingBuffer(RING_BYTES);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition work = lock.newCondition();
+    // Held while the decoder reads, so seeks and opens never touch a source mid-read
+    private final Object sourceLock = new Object();
+    private final ExecutorService lookAhead = Executors.newSingleThreadExecutor(r -> daemon("audio-lookahead", r));
+
+    // Guarded by lock. playing is what the listener hears; source is what the decoder reads.
+    // They differ between the decoder moving on to a queued track and the line reaching it.
+    // source is also only replaced while holding sourceLock.
+    private volatile PcmSource playing;
+    private volatile PcmSource source;
+    private boolean sourceDrained;
+    private long baseFrame;      // track frame the current ring generation starts at
+    private long framesWritten;  // frames handed to the line since baseFrame
+    private boolean closed;
+
+    // Look-ahead state, guarded by lock
+    private QueuedTrack queued;       // opened and pre-buffered, not yet picked up
+    private QueuedTrack upcoming;     // being decoded, still behind the playing track
+    private long switchAtFrame = -1;  // framesWritten at which upcoming becomes audible
+    private long queueToken;
+    // One entry per ring mark: the track that starts there, or END
+    private final ArrayDeque<Object> markKinds = new ArrayDeque<>();
+    private static final Object END = new Object();
+
+    // Crossfade state, guarded by sourceLock. fadingOut is the previous track while it's still
+    // being mixed under source; it may also still be playing (checkSwitch leaves it open).
+    private final CrossfadeMixer mixer = new CrossfadeMixer(CHUNK_BYTES);
+    private long sourceFrame;    // decoder position in source
+    private PcmSource fadingOut;
+    private long fadePos, fadeLength;
+    private volatile float crossfadeSeconds;
+    private volatile CrossfadeMixer.Curve crossfadeCurve = CrossfadeMixer.Curve.EQUAL_POWER;
+
+    private final SoftwareGain volume = new SoftwareGain();
+    private volatile TrackGain trackGain;
+
+    private volatile SourceDataLine line;
+    private volatile boolean running;
+    private volatile Listener listener;
+
+    StreamingPlaybackEngine() {
+        daemon("audio-decoder", this::decodeLoop).start();
+        daemon("audio-feeder", this::feedLoop).start();
+    }
+
+    private static Thread daemon(String name, Runnable body) {
+        Thread t = new Thread(body, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    private static final class QueuedTrack {
+        final File file;
+        final PcmSource source;
+
+        QueuedTrack(File file, PcmSource source) {
+            this.file = file;
+            this.source = source;
+        }
+    }
+
+    @Override
+    public void open(File file) throws IOException, UnsupportedAudioFileException, LineUnavailableException {
+        PcmSource next = takeQueued(file);
+        if (next == null) next = new NormalizedSource(PcmSource.open(file), file);
+        AudioFormat format = next.getFormat();
+        lock.lock();
+        try {
+            if (closed) throw new IllegalStateException("engine closed");
+            running = false;
+            SourceDataLine l = line;
+            if (l != null) {
+                l.stop();
+                l.flush();
+            }
+            synchronized (sourceLock) {
+                resetRing();
+                closeSources();
+            }
+            if (l == null || !l.getFormat().matches(format)) {
+                if (l != null) l.close();
+                line = null;
+                l = AudioSystem.getSourceDataLine(format);
+                int frames = (int) (format.getSampleRate() * LINE_BUFFER_SECONDS);
+                l.open(format, frames * format.getFrameSize());
+                line = l;
+            }
+            synchronized (sourceLock) {
+                source = next;
+                playing = next;
+                sourceFrame = 0;
+            }
+            sourceDrained = false;
+            baseFrame = 0;
+            framesWritten = 0;
+            work.signalAll();
+        } catch (LineUnavailableException | RuntimeException e) {
+            closeQuietly(next);
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The pre-buffered source for file if it's the one queued; anything else queued is dropped
+    private PcmSource takeQueued(File file) {
+        lock.lock();
+        try {
+            queueToken++;
+            QueuedTrack q = queued;
+            queued = null;
+            if (q == null) return null;
+            if (q.file.equals(file)) return q.source;
+            closeQuietly(q.source);
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void queueNext(File file) {
+        long token;
+        lock.lock();
+        try {
+            token = ++queueToken;
+            if (queued != null) closeQuietly(queued.source);
+            queued = null;
+        } finally {
+            lock.unlock();
+        }
+        if (file == null) return;
+
+        lookAhead.execute(() -> {
+            PcmSource src;
+            try {
+                // Normalized outside the preroll, so the gain is looked up when it starts playing
+                src = new NormalizedSource(new PrerolledSource(PcmSource.open(file), PREROLL_BYTES), file);
+            } catch (IOException | UnsupportedAudioFileException e) {
+                return; // reported by open() if the player falls back to it
+            }
+            lock.lock();
+            try {
+                if (token == queueToken && !closed) {
+                    queued = new QueuedTrack(file, src);
+                    src = null;
+                    continueIntoQueued();
+                }
+            } finally {
+                lock.unlock();
+            }
+            closeQuietly(src);
+        });
+    }
+
+    // Caller holds lock and sourceLock
+    private void resetRing() {
+        ring.clear();
+        markKinds.clear();
+        switchAtFrame = -1;
+    }
+
+    @Override
+    public void setCrossfade(float seconds, CrossfadeMixer.Curve curve) {
+        crossfadeSeconds = Math.max(0, seconds);
+        crossfadeCurve = curve;
+    }
+
+    // Caller holds lock and sourceLock
+    private void closeSources() {
+        cancelFade();
+        if (source != playing) closeQuietly(source);
+        closeQuietly(playing);
+        source = null;
+        playing = null;
+        upcoming = null;
+    }
+
+    private static void closeQuietly(PcmSource src) {
+        if (src == null) return;
+        try {
+            src.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return playing != null;
+    }
+
+    @Override
+    public void start() {
+        lock.lock();
+        try {
+            if (playing == null || line == null) return;
+            running = true;
+            line.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void stop() {
+        lock.lock();
+        try {
+            running = false;
+            if (line != null) line.stop();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public long getMicrosecondPosition() {
+        lock.lock();
+        try {
+            PcmSource src = playing;
+            SourceDataLine l = line;
+            if (src == null || l == null) return 0;
+            AudioFormat format = src.getFormat();
+            long buffered = (l.getBufferSize() - l.available()) / format.getFrameSize();
+            long played = Math.max(0, framesWritten - buffered);
+            if (switchAtFrame >= 0) played = Math.min(played, switchAtFrame);
+            return (long) ((baseFrame + played) * 1_000_000.0 / format.getFrameRate());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getMicrosecondLength() {
+        PcmSource src = playing;
+        if (src == null || src.getFrameLength() == AudioSystem.NOT_SPECIFIED) return 0;
+        return (long) (src.getFrameLength() * 1_000_000.0 / src.getFormat().getFrameRate());
+    }
+
+    @Override
+    public void setMicrosecondPosition(long microseconds) {
+        lock.lock();
+        try {
+            PcmSource src = playing;
+            if (src == null) return;
+            long frame = Math.max(0, (long) (microseconds / 1_000_000.0 * src.getFormat().getFrameRate()));
+            if (src.getFrameLength() != AudioSystem.NOT_SPECIFIED) frame = Math.min(frame, src.getFrameLength());
+            synchronized (sourceLock) {
+                try {
+                    cancelFade();
+                    if (upcoming != null) requeueUpcoming();
+                    src.seekFrame(frame);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                sourceFrame = frame;
+                resetRing();
+            }
+            if (line != null) line.flush();
+            sourceDrained = false;
+            baseFrame = frame;
+            framesWritten = 0;
+            work.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A seek landed while the decoder was already into the next track: rewind that track and
+    // queue it again, and point the decoder back at the one being heard.
+    // Caller holds lock and sourceLock.
+    private void requeueUpcoming() throws IOException {
+        QueuedTrack up = upcoming;
+        upcoming = null;
+        source = playing;
+        if (queued == null) {
+            up.source.seekFrame(0);
+            queued = up;
+        } else {
+            closeQuietly(up.source);
+        }
+    }
+
+    @Override
+    public void setVolume(float gain) {
+        volume.setTarget(gain);
+    }
+
+    @Override
+    public void setTrackGain(TrackGain trackGain) {
+        this.trackGain = trackGain;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            running = false;
+            ring.close();
+            synchronized (sourceLock) {
+                closeSources();
+            }
+            if (queued != null) closeQuietly(queued.source);
+            queued = null;
+            if (line != null) line.close();
+            line = null;
+            work.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        lookAhead.shutdownNow();
+    }
+
+    // ---------- Decoder thread: source -> ring ----------
+    private void decodeLoop() {
+        byte[] buf = new byte[CHUNK_BYTES];
+        byte[] fadeBuf = new byte[CHUNK_BYTES];
+        try {
+            while (true) {
+                PcmSource src;
+                lock.lock();
+                try {
+                    while (!closed && (source == null || sourceDrained)) work.await();
+                    if (closed) return;
+                    startFadeIfDue();
+                    src = source;
+                } finally {
+                    lock.unlock();
+                }
+
+                int n;
+                long gen;
+                synchronized (sourceLock) {
+                    if (src != source) continue;
+                    gen = ring.generation();
+                    int frameSize = src.getFormat().getFrameSize();
+                    // Stop exactly where a crossfade would begin
+                    long untilFade = framesBeforeFade(src);
+                    int len = buf.length - buf.length % frameSize;
+                    if (untilFade > 0 && untilFade < len / frameSize) len = (int) untilFade * frameSize;
+                    try {
+                        long start = System.nanoTime();
+                        n = src.read(buf, 0, len);
+                        DECODE_CHUNK.recordSince(start);
+                        if (n > 0) {
+                            DECODE_FRAMES.add(n / frameSize);
+                            sourceFrame += n / frameSize;
+                            if (fadingOut != null) mixFadingOut(buf, fadeBuf, n);
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        n = -1;
+                    }
+                    if (n < 0) cancelFade(); // the new track ended inside the fade
+                }
+
+                if (n > 0) {
+                    ring.write(buf, 0, n, gen);
+                } else if (n < 0) {
+                    endOfSource(src, gen);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Carry on with the queued track if the line can play it as is, otherwise mark the end
+    private void endOfSource(PcmSource src, long gen) {
+        lock.lock();
+        try {
+            if (src != source || gen != ring.generation()) return;
+            QueuedTrack q = queued;
+            SourceDataLine l = line;
+            if (q != null && upcoming == null && l != null && q.source.getFormat().matches(l.getFormat())) {
+                queued = null;
+                upcoming = q;
+                synchronized (sourceLock) {
+                    source = q.source;
+                    sourceFrame = 0;
+                }
+                ring.mark(gen);
+                markKinds.addLast(q);
+            } else {
+                sourceDrained = true;
+                ring.mark(gen);
+                markKinds.addLast(END);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The decoder may have reached the end before the queued track was ready. As long as the
+    // feeder hasn't got to that end mark yet, turn it into the start of the queued track.
+    // Caller holds lock.
+    private void continueIntoQueued() {
+        SourceDataLine l = line;
+        if (!sourceDrained || upcoming != null || markKinds.peekLast() != END || l == null) return;
+        if (!queued.source.getFormat().matches(l.getFormat())) return;
+        upcoming = queued;
+        queued = null;
+        synchronized (sourceLock) {
+            source = upcoming.source;
+            sourceFrame = 0;
+        }
+        markKinds.pollLast();
+        markKinds.addLast(upcoming);
+        sourceDrained = false;
+        work.signalAll();
+    }
+
+    // ---------- Crossfade ----------
+    private long crossfadeFrames(AudioFormat format) {
+        return (long) (crossfadeSeconds * format.getFrameRate());
+    }
+
+    // Frames the decoder may read from src before a crossfade has to start
+    // Caller holds sourceLock.
+    private long framesBeforeFade(PcmSource src) {
+        long fade = crossfadeFrames(src.getFormat());
+        if (fade <= 0 || fadingOut != null || src.getFrameLength() == AudioSystem.NOT_SPECIFIED) return Long.MAX_VALUE;
+        return src.getFrameLength() - sourceFrame - fade;
+    }
+
+    // Once the decoder is within the crossfade length of the end and the next track is ready,
+    // switch the decoder to it and keep the current one as fadingOut. Like the gapless switch,
+    // a ring mark tells the feeder where the new track starts.
+    // Caller holds lock.
+    private void startFadeIfDue() {
+        QueuedTrack q = queued;
+        SourceDataLine l = line;
+        if (q == null || upcoming != null || l == null || sourceDrained) return;
+        synchronized (sourceLock) {
+            PcmSource src = source;
+            if (fadingOut != null || framesBeforeFade(src) > 0) return;
+            long remaining = src.getFrameLength() - sourceFrame;
+            AudioFormat format = src.getFormat();
+            if (remaining <= 0 || !q.source.getFormat().matches(l.getFormat())
+                    || !PcmSamples.supports(format)) return;
+            fadingOut = src;
+            fadePos = 0;
+            fadeLength = remaining;
+            source = q.source;
+            sourceFrame = 0;
+        }
+        queued = null;
+        upcoming = q;
+        ring.mark(ring.generation());
+        markKinds.addLast(q);
+    }
+
+    // Mixes the same number of frames from fadingOut into buf. Caller holds sourceLock.
+    private void mixFadingOut(byte[] buf, byte[] fadeBuf, int n) throws IOException {
+        AudioFormat format = source.getFormat();
+        int got = 0;
+        while (got < n) {
+            int r = fadingOut.read(fadeBuf, got, n - got);
+            if (r < 0) break;
+            got += r;
+        }
+        if (got < n) Arrays.fill(fadeBuf, got, n, silence(format));
+        mixer.mix(buf, fadeBuf, n, format, fadePos, fadeLength, crossfadeCurve);
+        fadePos += n / format.getFrameSize();
+        if (got < n || fadePos >= fadeLength) cancelFade();
+    }
+
+    private static byte silence(AudioFormat format) {
+        return format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED ? (byte) 0x80 : 0;
+    }
+
+    // Drops the outgoing track of a crossfade, closing it unless it's still the one heard
+    // Caller holds sourceLock.
+    private void cancelFade() {
+        if (fadingOut == null) return;
+        if (fadingOut != playing && fadingOut != source) closeQuietly(fadingOut);
+        fadingOut = null;
+    }
+
+    // ---------- Feeder thread: ring -> line ----------
+    private void feedLoop() {
+        byte[] buf = new byte[CHUNK_BYTES];
+        long fedGen = -1; // the ring generation this thread last wrote to the line
+        try {
+            while (true) {
+                SourceDataLine l;
+                AudioFormat format;
+                int frameSize;
+                long gen;
+                lock.lock();
+                try {
+                    while (!closed && (line == null || playing == null)) work.await();
+                    if (closed) return;
+                    l = line;
+                    format = playing.getFormat();
+                    frameSize = format.getFrameSize();
+                    gen = ring.generation();
+                } finally {
+                    lock.unlock();
+                }
+
+                int n = ring.read(buf, 0, buf.length - buf.length % frameSize, frameSize, gen);
+                if (n > 0) {
+                    // An empty line part way through a generation means the ring couldn't keep up;
+                    // at the start of one (open or seek) it's just been flushed
+                    if (gen == fedGen && running && l.available() >= l.getBufferSize()) UNDERRUNS.increment();
+                    fedGen = gen;
+                    volume.process(buf, 0, n, format);
+                    l.write(buf, 0, n);
+                    lock.lock();
+                    try {
+                        if (gen == ring.generation()) framesWritten += n / frameSize;
+                        else l.flush(); // a seek or open raced with this write
+                    } finally {
+                        lock.unlock();
+                    }
+                    checkSwitch(l);
+                } else if (n < 0) {
+                    if (reachedTrackStart(gen)) continue;
+                    if (awaitPlayedOut(l, gen)) {
+                        Listener ls = listener;
+                        if (ls != null) ls.endOfTrack();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The feeder hit a mark. True if it's where an upcoming track starts rather than the end.
+    private boolean reachedTrackStart(long gen) {
+        lock.lock();
+        try {
+            if (gen != ring.generation()) return true; // stale mark, nothing to do
+            Object kind = markKinds.pollFirst();
+            if (kind == END || kind == null) return false;
+            switchAtFrame = framesWritten;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Hands the listener over to the upcoming track once the line has played up to it
+    private void checkSwitch(SourceDataLine l) {
+        File started = null;
+        lock.lock();
+        try {
+            if (switchAtFrame < 0 || upcoming == null) return;
+            long buffered = (l.getBufferSize() - l.available()) / playing.getFormat().getFrameSize();
+            if (framesWritten - buffered < switchAtFrame) return;
+            synchronized (sourceLock) {
+                if (playing != fadingOut) closeQuietly(playing); // otherwise the fade closes it
+                playing = upcoming.source;
+            }
+            started = upcoming.file;
+            upcoming = null;
+            framesWritten -= switchAtFrame;
+            switchAtFrame = -1;
+            baseFrame = 0;
+        } finally {
+            lock.unlock();
+        }
+        Listener ls = listener;
+        if (ls != null) ls.queuedTrackStarted(started);
+    }
+
+    // Waits for the line to play what's buffered. False if a seek/open/close got there first.
+    private boolean awaitPlayedOut(SourceDataLine l, long gen) throws InterruptedException {
+        while (true) {
+            checkSwitch(l); // a very short upcoming track can end before it was announced
+            lock.lock();
+            try {
+                if (closed || gen != ring.generation()) return false;
+                if (l.available() >= l.getBufferSize()) {
+                    running = false;
+                    l.stop();
+                    return true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    // Applies the track's normalization gain. It's looked up on the first read, i.e. when the
+    // track starts decoding, and then stays fixed so the level never jumps mid-track.
+    private final class NormalizedSource implements PcmSource {
+        private final PcmSource delegate;
+        private final File file;
+        private float gain = -1; // linear; -1 until looked up
+
+        NormalizedSource(PcmSource delegate, File file) {
+            this.delegate = delegate;
+            this.file = file;
+        }
+
+        @Override
+        public AudioFormat getFormat() {
+            return delegate.getFormat();
+        }
+
+        @Override
+        public long getFrameLength() {
+            return delegate.getFrameLength();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = delegate.read(b, off, len);
+            if (gain < 0) {
+                TrackGain tg = trackGain;
+                float db = tg == null ? Float.NaN : tg.gainDb(file);
+                gain = Float.isNaN(db) ? 1f : SoftwareGain.dbToLinear(db);
+            }
+            if (n > 0 && gain != 1f) SoftwareGain.scale(b, off, n, getFormat(), gain, gain);
+            return n;
+        }
+
+        @Override
+        public void seekFrame(long frame) throws IOException {
+            delegate.seekFrame(frame);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    // Serves the bytes read ahead on the look-ahead thread, then the source itself
+    private static final class PrerolledSource implements PcmSource {
+        private final PcmSource delegate;
+        private byte[] preroll;
+        private int prerollPos, prerollLen;
+
+        // Closes delegate if the preroll fails, since the caller never gets a source to close
+        PrerolledSource(PcmSource delegate, int bytes) throws IOException {
+            this.delegate = delegate;
+            try {
+                int frameSize = delegate.getFormat().getFrameSize();
+                preroll = new byte[bytes - bytes % frameSize];
+                while (prerollLen < preroll.length) {
+                    int n = delegate.read(preroll, prerollLen, preroll.length - prerollLen);
+                    if (n < 0) break;
+                    prerollLen += n;
+                }
+            } catch (IOException | RuntimeException e) {
+                try {
+                    delegate.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public AudioFormat getFormat() {
+            return delegate.getFormat();
+        }
+
+        @Override
+        public long getFrameLength() {
+            return delegate.getFrameLength();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (preroll == null) return delegate.read(b, off, len);
+            int frameSize = getFormat().getFrameSize();
+            int n = Math.min(len - len % frameSize, prerollLen - prerollPos);
+            System.arraycopy(preroll, prerollPos, b, off, n);
+            prerollPos += n;
+            if (prerollPos == prerollLen) preroll = null;
+            return n;
+        }
+
+        @Override
+        public void seekFrame(long frame) throws IOException {
+            preroll = null;
+            delegate.seekFrame(frame);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import javax.swing.JComponent;
+import javax.swing.UIManager;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Insets;
+import java.awt.Toolkit;
+import java.util.Map;
+
+// "mm:ss / mm:ss" drawn straight from a char buffer. Updating it formats digits in place
+// instead of building Strings, and only repaints when a displayed second changes.
+class TimeLabel extends JComponent {
+    // Room for "hhh:mm:ss / hhh:mm:ss"
+    private final char[] text = new char[21];
+    private int length;
+    private long shownCurrent = -1, shownTotal = -1;
+
+    TimeLabel() {
+        setFont(UIManager.getFont("Label.font"));
+        setForeground(UIManager.getColor("Label.foreground"));
+        setTime(0, 0);
+    }
+
+    void setTime(long currentMicros, long totalMicros) {
+        long cur = Math.max(0, currentMicros / 1_000_000);
+        long tot = Math.max(0, totalMicros / 1_000_000);
+        if (cur == shownCurrent && tot == shownTotal) return;
+        shownCurrent = cur;
+        shownTotal = tot;
+        int n = append(0, cur);
+        text[n++] = ' ';
+        text[n++] = '/';
+        text[n++] = ' ';
+        length = append(n, tot);
+        repaint();
+    }
+
+    // mm:ss like the old label, with hours in front once there are any
+    private int append(int at, long seconds) {
+        long h = Math.min(999, seconds / 3600), m = seconds / 60 % 60, s = seconds % 60;
+        if (h > 0) {
+            if (h >= 100) text[at++] = (char) ('0' + h / 100);
+            if (h >= 10) text[at++] = (char) ('0' + h / 10 % 10);
+            text[at++] = (char) ('0' + h % 10);
+            text[at++] = ':';
+        }
+        text[at++] = (char) ('0' + m / 10);
+        text[at++] = (char) ('0' + m % 10);
+        text[at++] = ':';
+        text[at++] = (char) ('0' + s / 10);
+        text[at++] = (char) ('0' + s % 10);
+        return at;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        FontMetrics fm = getFontMetrics(getFont());
+        Insets in = getInsets();
+        // Wide enough for "00:00:00 / 00:00:00" so the layout doesn't jump
+        return new Dimension(fm.stringWidth("00:00:00 / 00:00:00") + in.left + in.right + 4,
+                fm.getHeight() + in.top + in.bottom);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        // Same text antialiasing as the labels around it
+        Object hints = Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+        if (hints instanceof Map) ((Graphics2D) g).addRenderingHints((Map<?, ?>) hints);
+        FontMetrics fm = g.getFontMetrics(getFont());
+        g.setFont(getFont());
+        g.setColor(getForeground());
+        int w = fm.charsWidth(text, 0, length);
+        int y = (getHeight() - fm.getHeight()) / 2 + fm.getAscent();
+        g.drawChars(text, 0, length, getWidth() - getInsets().right - w, y); // right-aligned
+    }
+}
@@ -0,0 +1,55 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+
+// The system event queue with each dispatch timed into edt.dispatch: every listener, paint and
+// invokeLater runnable the EDT runs, i.e. how long at a time the window couldn't respond.
+// It also publishes the event in progress for EdtWatchdog.
+//
+// A modal dialog runs a nested event loop inside the dispatch that opened it. Time spent
+// there isn't a stall, so when a nested dispatch finishes the outer one's clock restarts:
+// every Dispatch's start is the last moment the EDT was known to be making progress.
+class TimedEventQueue extends EventQueue {
+    private static final Histogram DISPATCH = Metrics.histogram("edt.dispatch");
+
+    static final class Dispatch {
+        final AWTEvent event;
+        final Thread thread;
+        final long startNanos;
+        final Dispatch outer;
+
+        Dispatch(AWTEvent event, Thread thread, long startNanos, Dispatch outer) {
+            this.event = event;
+            this.thread = thread;
+            this.startNanos = startNanos;
+            this.outer = outer;
+        }
+    }
+
+    private volatile Dispatch current; // written on the EDT only
+
+    static TimedEventQueue install() {
+        TimedEventQueue queue = new TimedEventQueue();
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(queue);
+        return queue;
+    }
+
+    // The innermost event being dispatched, or null when the EDT is idle; any thread
+    Dispatch current() {
+        return current;
+    }
+
+    @Override
+    protected void dispatchEvent(AWTEvent event) {
+        current = new Dispatch(event, Thread.currentThread(), System.nanoTime(), current);
+        try {
+            super.dispatchEvent(event);
+        } finally {
+            long now = System.nanoTime();
+            Dispatch done = current;
+            DISPATCH.record(now - done.startNanos);
+            Dispatch outer = done.outer;
+            current = outer == null ? null : new Dispatch(outer.event, outer.thread, now, outer.outer);
+        }
+    }
+}
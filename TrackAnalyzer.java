@@ -0,0 +1,172 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Decodes a track once, on a low-priority background thread, for the two things that need
+// every sample: the loudness normalization gain (stored in the metadata cache) and the
+// waveform overview (stored next to it). The loudness measure follows ReplayGain's outline:
+// RMS over 50 ms blocks, the 95th percentile of those block levels, and a gain that brings
+// it to TARGET_DB, limited so the track's peak doesn't clip. (ReplayGain's equal-loudness
+// filter is left out.) Tracks that have both already cost a database read at most.
+class TrackAnalyzer {
+
+    interface Listener {
+        // On the EDT, for every analyzed track that has a waveform
+        void waveformReady(File f, WaveformSummary summary);
+    }
+
+    static final float TARGET_DB = -18f;
+    private static final float MIN_GAIN_DB = -24f, MAX_GAIN_DB = 12f;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int RECENT_WAVEFORMS = 16;
+
+    private final MetadataCache metadata;
+    private final Listener listener;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // Playing and queued tracks, so replaying one doesn't go back to the database
+    private final Map<String, WaveformSummary> recent = new LinkedHashMap<>(32, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, WaveformSummary> eldest) {
+            return size() > RECENT_WAVEFORMS;
+        }
+    };
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "track-analysis");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    TrackAnalyzer(MetadataCache metadata, Listener listener) {
+        this.metadata = metadata;
+        this.listener = listener;
+    }
+
+    // Queues f unless it's queued already. A waveform that's at hand is reported right away.
+    void analyze(File f) {
+        String path = f.getAbsolutePath();
+        TrackInfo info = metadata.get(f);
+        WaveformSummary summary;
+        synchronized (recent) {
+            summary = recent.get(path);
+        }
+        if (summary != null && info != null && !Float.isNaN(info.gainDb)) {
+            fire(f, summary);
+            return;
+        }
+        if (!pending.add(path)) return;
+        worker.execute(() -> {
+            try {
+                run(f);
+            } finally {
+                pending.remove(path);
+            }
+        });
+    }
+
+    private void run(File f) {
+        long size, lastModified;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+            size = attrs.size();
+            lastModified = attrs.lastModifiedTime().toMillis();
+        } catch (IOException | SecurityException e) {
+            return; // missing; the validator reports that
+        }
+        TrackInfo info = metadata.get(f);
+        boolean needGain = info == null || Float.isNaN(info.gainDb);
+        WaveformSummary summary = metadata.loadWaveform(f, size, lastModified);
+        if (needGain || summary == null) {
+            try (PcmSource src = PcmSource.open(f)) {
+                WaveformSummary.Builder waveform = summary == null
+                        ? new WaveformSummary.Builder(src.getFrameLength()) : null;
+                float gain = measure(src, waveform);
+                if (needGain && !Float.isNaN(gain)) metadata.setGain(f, gain);
+                if (waveform != null) {
+                    summary = waveform.build();
+                    if (summary != null) metadata.saveWaveform(f, size, lastModified, summary);
+                }
+            } catch (IOException | UnsupportedAudioFileException e) {
+                // unplayable; the loader reports that when it's played
+            }
+        }
+        if (summary == null) return;
+        synchronized (recent) {
+            recent.put(f.getAbsolutePath(), summary);
+        }
+        fire(f, summary);
+    }
+
+    private void fire(File f, WaveformSummary summary) {
+        SwingUtilities.invokeLater(() -> listener.waveformReady(f, summary));
+    }
+
+    // Normalization gain in dB for the whole source, or NaN if it can't be measured.
+    // Every frame also goes to waveform, if there is one.
+    static float measure(PcmSource src, WaveformSummary.Builder waveform) throws IOException {
+        AudioFormat format = src.getFormat();
+        if (!PcmSamples.supports(format)) return Float.NaN;
+        int bytes = format.getSampleSizeInBits() / 8;
+        int channels = format.getChannels();
+        int frameSize = format.getFrameSize();
+        boolean big = format.isBigEndian();
+        boolean unsigned = PcmSamples.isUnsigned(format);
+        int blockFrames = Math.max(1, (int) (format.getFrameRate() * 0.05f));
+
+        // Block levels in 0.01 dB steps from -120 to 0 dBFS
+        int[] histogram = new int[12000];
+        int blocks = 0;
+        double blockSum = 0;
+        int blockFill = 0;
+        float peak = 0;
+        byte[] buf = new byte[BUFFER_BYTES - BUFFER_BYTES % frameSize];
+        int n;
+        while ((n = src.read(buf, 0, buf.length)) >= 0) {
+            for (int i = 0; i + frameSize <= n; ) {
+                double frameSum = 0;
+                float framePeak = 0;
+                for (int c = 0; c < channels; c++, i += bytes) {
+                    float v = PcmSamples.get(buf, i, bytes, big, unsigned);
+                    frameSum += v * v;
+                    framePeak = Math.max(framePeak, Math.abs(v));
+                }
+                peak = Math.max(peak, framePeak);
+                blockSum += frameSum / channels;
+                if (waveform != null) waveform.add(framePeak, frameSum / channels);
+                if (++blockFill == blockFrames) {
+                    histogram[bin(blockSum / blockFill)]++;
+                    blocks++;
+                    blockSum = 0;
+                    blockFill = 0;
+                }
+            }
+        }
+        if (blocks == 0 || peak == 0) return Float.NaN;
+
+        // Level exceeded by the loudest 5% of blocks
+        int above = (int) Math.ceil(blocks * 0.05), bin = histogram.length - 1;
+        for (int seen = 0; bin > 0; bin--) {
+            seen += histogram[bin];
+            if (seen >= above) break;
+        }
+        float level = bin / 100f - 120f;
+        float gain = Math.max(MIN_GAIN_DB, Math.min(MAX_GAIN_DB, TARGET_DB - level));
+        float headroom = (float) (-20 * Math.log10(peak)); // dB the peak can rise before clipping
+        return Math.min(gain, headroom);
+    }
+
+    private static int bin(double meanSquare) {
+        double db = meanSquare > 0 ? 10 * Math.log10(meanSquare) : -120;
+        return (int) Math.max(0, Math.min(11999, Math.round((db + 120) * 100)));
+    }
+}
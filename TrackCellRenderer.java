@@ -0,0 +1,52 @@
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.ListCellRenderer;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.io.File;
+
+// Playlist row: track name on the left, duration from the metadata cache on the right.
+// Files the validator found missing are greyed out. Only caches are consulted, so painting
+// never touches the disk.
+class TrackCellRenderer extends JPanel implements ListCellRenderer<File> {
+    private final MetadataCache metadata;
+    private final FileValidator validator;
+    private final DefaultListCellRenderer name = new DefaultListCellRenderer();
+    private final JLabel duration = new JLabel();
+
+    TrackCellRenderer(MetadataCache metadata, FileValidator validator) {
+        super(new BorderLayout());
+        this.metadata = metadata;
+        this.validator = validator;
+        add(name, BorderLayout.CENTER);
+        add(duration, BorderLayout.EAST);
+    }
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends File> list, File value, int index,
+                                                  boolean isSelected, boolean cellHasFocus) {
+        boolean missing = value != null && validator.isMissing(value);
+        String text = value == null ? "" : missing ? value.getName() + " (missing)" : value.getName();
+        name.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+        if (missing && !isSelected) name.setForeground(Color.GRAY);
+        setBackground(name.getBackground());
+        duration.setForeground(name.getForeground());
+        duration.setFont(name.getFont());
+        TrackInfo info = value == null ? null : metadata.get(value);
+        duration.setText(info == null || info.durationMicros < 0 ? "" : formatDuration(info.durationMicros) + " ");
+        return this;
+    }
+
+    // m:ss, or h:mm:ss from an hour up
+    static String formatDuration(long micros) {
+        long seconds = micros / 1_000_000;
+        long h = seconds / 3600, m = seconds / 60 % 60, s = seconds % 60;
+        StringBuilder sb = new StringBuilder();
+        if (h > 0) sb.append(h).append(':').append(m < 10 ? "0" : "");
+        sb.append(m).append(':').append(s < 10 ? "0" : "").append(s);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,88 @@
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
+import java.util.Map;
+
+// What the metadata cache knows about one file. size and lastModified are the file's
+// state when it was probed; the entry is stale once either differs.
+// encoding is null for files AudioSystem couldn't read, so they aren't probed again.
+// gainDb is the loudness normalization gain, NaN until TrackAnalyzer has measured it.
+final class TrackInfo {
+    final String path;
+    final long size;
+    final long lastModified;
+    final long durationMicros; // -1 if unknown
+    final String encoding;
+    final float sampleRate;
+    final int channels;
+    final int bits;
+    final String title;
+    final String artist;
+    final String album;
+    final float gainDb;
+
+    TrackInfo(String path, long size, long lastModified, long durationMicros, String encoding,
+              float sampleRate, int channels, int bits, String title, String artist, String album,
+              float gainDb) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.durationMicros = durationMicros;
+        this.encoding = encoding;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bits = bits;
+        this.title = title;
+        this.artist = artist;
+        this.album = album;
+        this.gainDb = gainDb;
+    }
+
+    static TrackInfo unreadable(File f, long size, long lastModified) {
+        return new TrackInfo(f.getAbsolutePath(), size, lastModified, -1, null, 0, 0, 0, null, null, null, Float.NaN);
+    }
+
+    static TrackInfo of(File f, long size, long lastModified, AudioFileFormat fileFormat) {
+        AudioFormat format = fileFormat.getFormat();
+        Map<String, Object> props = fileFormat.properties();
+        long duration = -1;
+        if (fileFormat.getFrameLength() != AudioSystem.NOT_SPECIFIED && format.getFrameRate() > 0) {
+            duration = (long) (fileFormat.getFrameLength() * 1_000_000.0 / format.getFrameRate());
+        } else if (props.get("duration") instanceof Long) {
+            duration = (Long) props.get("duration"); // compressed formats report it here
+        }
+        return new TrackInfo(f.getAbsolutePath(), size, lastModified, duration,
+                format.getEncoding().toString(), format.getSampleRate(), format.getChannels(),
+                format.getSampleSizeInBits(), text(props.get("title")), text(props.get("author")),
+                text(props.get("album")), Float.NaN);
+    }
+
+    TrackInfo withGain(float gainDb) {
+        return new TrackInfo(path, size, lastModified, durationMicros, encoding, sampleRate, channels,
+                bits, title, artist, album, gainDb);
+    }
+
+    boolean isCurrent(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+
+    boolean isReadable() {
+        return encoding != null;
+    }
+
+    // Tag text for the search index, empty if the file has no tags
+    String tags() {
+        StringBuilder sb = new StringBuilder();
+        for (String s : new String[] { title, artist, album }) {
+            if (s == null || s.isEmpty()) continue;
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static String text(Object value) {
+        return value == null ? null : value.toString();
+    }
+}
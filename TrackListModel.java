@@ -0,0 +1,341 @@
+import javax.swing.AbstractListModel;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Playlist model for large libraries. A track is stored as an int id into a shared table of
+// parent directories plus its file name, so a 200k-track list is two arrays instead of 200k
+// File objects, and copies between models share the strings. File objects are only created
+// for the rows Swing asks for. addAll fires one event for the whole batch, and replacing the
+// contents fires at most two instead of one per row.
+// Like DefaultListModel, it's meant to be used on the EDT; a copy owned by another thread
+// can follow it through replay().
+class TrackListModel extends AbstractListModel<File> {
+    private static final DirectoryTable DIRS = new DirectoryTable();
+
+    private int[] dirIds = new int[16];
+    private String[] names = new String[16];
+    private int size;
+
+    // contentsChanged for rows that still hold the same tracks, so a listener that keeps state
+    // per row (the play queue) can keep it: one row moved from one index to another...
+    static final class Moved extends ListDataEvent {
+        final int from, to;
+
+        Moved(Object source, int from, int to) {
+            super(source, CONTENTS_CHANGED, Math.min(from, to), Math.max(from, to));
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    // ...or the rows' files were found at a new path
+    static final class Relocated extends ListDataEvent {
+        Relocated(Object source, int first, int last) {
+            super(source, CONTENTS_CHANGED, first, last);
+        }
+    }
+
+    // Parent directories, each stored once for all models
+    private static final class DirectoryTable {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> paths = new ArrayList<>();
+
+        synchronized int idOf(String dir) {
+            Integer id = ids.get(dir);
+            if (id == null) {
+                id = paths.size();
+                paths.add(dir);
+                ids.put(dir, id);
+            }
+            return id;
+        }
+
+        // -1 if dir has never been stored
+        synchronized int find(String dir) {
+            Integer id = ids.get(dir);
+            return id == null ? -1 : id;
+        }
+
+        synchronized String path(int id) {
+            return paths.get(id);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public File getElementAt(int index) {
+        return get(index);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    File get(int index) {
+        if (index < 0 || index >= size) throw new ArrayIndexOutOfBoundsException(index);
+        String dir = DIRS.path(dirIds[index]);
+        return dir.isEmpty() ? new File(names[index]) : new File(dir, names[index]);
+    }
+
+    void addElement(File f) {
+        ensureCapacity(size + 1);
+        store(size++, f);
+        fireIntervalAdded(this, size - 1, size - 1);
+    }
+
+    void addAll(Collection<? extends File> files) {
+        if (files.isEmpty()) return;
+        int first = size;
+        ensureCapacity(size + files.size());
+        for (File f : files) store(size++, f);
+        fireIntervalAdded(this, first, size - 1);
+    }
+
+    void setAll(Collection<? extends File> files) {
+        int oldSize = size;
+        size = 0;
+        ensureCapacity(files.size());
+        for (File f : files) store(size++, f);
+        if (size < oldSize) Arrays.fill(names, size, oldSize, null);
+        fireReplaced(oldSize);
+    }
+
+    // Replaces the contents with a copy of other; only the arrays are copied
+    void setAll(TrackListModel other) {
+        int oldSize = size;
+        ensureCapacity(other.size);
+        System.arraycopy(other.dirIds, 0, dirIds, 0, other.size);
+        System.arraycopy(other.names, 0, names, 0, other.size);
+        if (other.size < oldSize) Arrays.fill(names, other.size, oldSize, null);
+        size = other.size;
+        fireReplaced(oldSize);
+    }
+
+    // Replaces the contents with the rows of other that hold one of files, in other's order;
+    // a file other lists twice comes twice. Returns the row in other of each row taken.
+    int[] setAll(TrackListModel other, Collection<? extends File> files) {
+        Map<Integer, Set<String>> wanted = new HashMap<>();
+        for (File f : files) {
+            File abs = f.getAbsoluteFile();
+            String parent = abs.getParent();
+            int dir = DIRS.find(parent == null ? "" : parent);
+            if (dir >= 0) wanted.computeIfAbsent(dir, k -> new HashSet<>()).add(abs.getName());
+        }
+        int oldSize = size;
+        int[] from = new int[Math.min(other.size, files.size())];
+        int n = 0;
+        for (int i = 0; i < other.size; i++) {
+            Set<String> names = wanted.get(other.dirIds[i]);
+            if (names == null || !names.contains(other.names[i])) continue;
+            if (n == from.length) from = Arrays.copyOf(from, n * 2);
+            from[n++] = i;
+        }
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            dirIds[i] = other.dirIds[from[i]];
+            this.names[i] = other.names[from[i]];
+        }
+        if (n < oldSize) Arrays.fill(this.names, n, oldSize, null);
+        size = n;
+        fireReplaced(oldSize);
+        return Arrays.copyOf(from, n);
+    }
+
+    void remove(int index) {
+        if (index < 0 || index >= size) throw new ArrayIndexOutOfBoundsException(index);
+        System.arraycopy(dirIds, index + 1, dirIds, index, size - index - 1);
+        System.arraycopy(names, index + 1, names, index, size - index - 1);
+        names[--size] = null;
+        fireIntervalRemoved(this, index, index);
+    }
+
+    // Removes rows, which must be ascending and distinct, in one pass over the arrays. Fires one
+    // event per run of adjacent rows, the last run first, so each event's indices hold as it's
+    // heard; a contiguous selection is one event.
+    void removeAll(int[] rows) {
+        if (rows.length == 0) return;
+        for (int r : rows) {
+            if (r < 0 || r >= size) throw new ArrayIndexOutOfBoundsException(r);
+        }
+        int kept = rows[0];
+        for (int i = 0; i < rows.length; i++) {
+            int from = rows[i] + 1, to = i + 1 < rows.length ? rows[i + 1] : size;
+            System.arraycopy(dirIds, from, dirIds, kept, to - from);
+            System.arraycopy(names, from, names, kept, to - from);
+            kept += to - from;
+        }
+        Arrays.fill(names, kept, size, null);
+        size = kept;
+        for (int end = rows.length - 1; end >= 0; ) {
+            int start = end;
+            while (start > 0 && rows[start - 1] == rows[start] - 1) start--;
+            fireIntervalRemoved(this, rows[start], rows[end]);
+            end = start - 1;
+        }
+    }
+
+    // Takes the row at from out and puts it back at to, shifting the rows in between; one event
+    void move(int from, int to) {
+        if (from < 0 || from >= size) throw new ArrayIndexOutOfBoundsException(from);
+        if (to < 0 || to >= size) throw new ArrayIndexOutOfBoundsException(to);
+        if (from == to) return;
+        int dir = dirIds[from];
+        String name = names[from];
+        if (from < to) {
+            System.arraycopy(dirIds, from + 1, dirIds, from, to - from);
+            System.arraycopy(names, from + 1, names, from, to - from);
+        } else {
+            System.arraycopy(dirIds, to, dirIds, to + 1, from - to);
+            System.arraycopy(names, to, names, to + 1, from - to);
+        }
+        dirIds[to] = dir;
+        names[to] = name;
+        fire(new Moved(this, from, to));
+    }
+
+    // Puts to in every row that holds from; one event. Returns how many rows changed.
+    int replace(File from, File to) {
+        String parent = from.getAbsoluteFile().getParent();
+        int dir = DIRS.find(parent == null ? "" : parent);
+        if (dir < 0) return 0;
+        String name = from.getName();
+        int first = -1, last = -1, count = 0;
+        for (int i = 0; i < size; i++) {
+            if (dirIds[i] != dir || !names[i].equals(name)) continue;
+            store(i, to);
+            if (first < 0) first = i;
+            last = i;
+            count++;
+        }
+        if (count > 0) fire(new Relocated(this, first, last));
+        return count;
+    }
+
+    boolean removeElement(File f) {
+        int index = indexOf(f);
+        if (index < 0) return false;
+        remove(index);
+        return true;
+    }
+
+    int indexOf(File f) {
+        String parent = f.getAbsoluteFile().getParent();
+        int dir = DIRS.find(parent == null ? "" : parent);
+        if (dir < 0) return -1;
+        String name = f.getName();
+        for (int i = 0; i < size; i++) {
+            if (dirIds[i] == dir && names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    void clear() {
+        int oldSize = size;
+        if (oldSize == 0) return;
+        Arrays.fill(names, 0, size, null);
+        size = 0;
+        fireIntervalRemoved(this, 0, oldSize - 1);
+    }
+
+    // Rows first to last, no listeners; for replay() on another thread
+    TrackListModel slice(int first, int last) {
+        if (first < 0 || last >= size || first > last) throw new ArrayIndexOutOfBoundsException(first);
+        TrackListModel c = new TrackListModel();
+        c.dirIds = Arrays.copyOfRange(dirIds, first, last + 1);
+        c.names = Arrays.copyOfRange(names, first, last + 1);
+        c.size = last - first + 1;
+        return c;
+    }
+
+    // Repeats an edit made to another model, which fired e: rows are what that model held from
+    // e's first index to its last afterwards (nothing for a removal). A copy kept on another
+    // thread follows the list this way for the cost of the rows that changed.
+    void replay(ListDataEvent e, TrackListModel rows) {
+        int first = e.getIndex0(), count = e.getIndex1() - first + 1;
+        switch (e.getType()) {
+            case ListDataEvent.INTERVAL_ADDED:
+                ensureCapacity(size + count);
+                System.arraycopy(dirIds, first, dirIds, first + count, size - first);
+                System.arraycopy(names, first, names, first + count, size - first);
+                size += count;
+                System.arraycopy(rows.dirIds, 0, dirIds, first, count);
+                System.arraycopy(rows.names, 0, names, first, count);
+                fireIntervalAdded(this, first, first + count - 1);
+                break;
+            case ListDataEvent.INTERVAL_REMOVED:
+                System.arraycopy(dirIds, first + count, dirIds, first, size - first - count);
+                System.arraycopy(names, first + count, names, first, size - first - count);
+                Arrays.fill(names, size - count, size, null);
+                size -= count;
+                fireIntervalRemoved(this, first, first + count - 1);
+                break;
+            default:
+                if (e instanceof Moved m) {
+                    move(m.from, m.to);
+                    break;
+                }
+                System.arraycopy(rows.dirIds, 0, dirIds, first, count);
+                System.arraycopy(rows.names, 0, names, first, count);
+                if (e instanceof Relocated) fire(new Relocated(this, first, first + count - 1));
+                else fireContentsChanged(this, first, first + count - 1);
+        }
+    }
+
+    // Same rows, no listeners; the arrays are copied, so it can go to another thread
+    TrackListModel copy() {
+        TrackListModel c = new TrackListModel();
+        c.dirIds = Arrays.copyOf(dirIds, Math.max(1, size));
+        c.names = Arrays.copyOf(names, Math.max(1, size));
+        c.size = size;
+        return c;
+    }
+
+    List<File> toList() {
+        List<File> files = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) files.add(get(i));
+        return files;
+    }
+
+    private void store(int index, File f) {
+        File abs = f.getAbsoluteFile();
+        String parent = abs.getParent();
+        dirIds[index] = DIRS.idOf(parent == null ? "" : parent);
+        names[index] = abs.getName();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= dirIds.length) return;
+        int newCapacity = Math.max(capacity, dirIds.length * 2);
+        dirIds = Arrays.copyOf(dirIds, newCapacity);
+        names = Arrays.copyOf(names, newCapacity);
+    }
+
+    // fireContentsChanged with an event that says what changed
+    private void fire(ListDataEvent e) {
+        ListDataListener[] listeners = getListDataListeners();
+        for (int i = listeners.length - 1; i >= 0; i--) listeners[i].contentsChanged(e);
+    }
+
+    private void fireReplaced(int oldSize) {
+        if (oldSize > size) fireIntervalRemoved(this, size, oldSize - 1);
+        if (size > oldSize) fireIntervalAdded(this, oldSize, size - 1);
+        if (Math.min(oldSize, size) > 0) fireContentsChanged(this, 0, Math.min(oldSize, size) - 1);
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Opens tracks on a thread of its own. Only the newest request counts: a new load cancels the one
+// before it, and states from superseded loads are never published.
+class TrackLoader {
+    private static final Histogram OPEN_TIME = Metrics.histogram("track.open");
+    private static final Metrics.Counter OPEN_FAILURES = Metrics.counter("track.open.failed");
+
+    enum State { LOADING, READY, FAILED }
+
+    interface Listener {
+        // Called through the callbacks executor, only for the latest request. message is set for FAILED.
+        void loadStateChanged(int index, File file, State state, String message);
+    }
+
+    private final PlaybackEngine player;
+    private final Listener listener;
+    private final Executor callbacks;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "track-loader");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong generation = new AtomicLong();
+    private Future<?> pending; // owner's thread only
+
+    TrackLoader(PlaybackEngine player, Listener listener, Executor callbacks) {
+        this.player = player;
+        this.listener = listener;
+        this.callbacks = callbacks;
+    }
+
+    // Call from the thread that owns the loader (the one callbacks run on)
+    void load(int index, File file) {
+        long gen = generation.incrementAndGet();
+        if (pending != null) pending.cancel(true);
+        publish(gen, index, file, State.LOADING, null);
+
+        pending = executor.submit(() -> {
+            if (gen != generation.get()) return;
+            try {
+                if (!file.exists()) {
+                    publish(gen, index, file, State.FAILED, "File not found: " + file.getAbsolutePath());
+                    return;
+                }
+                long start = System.nanoTime();
+                player.open(file);
+                OPEN_TIME.recordSince(start);
+                publish(gen, index, file, State.READY, null);
+            } catch (Exception ex) {
+                OPEN_FAILURES.increment();
+                publish(gen, index, file, State.FAILED, "Playback error: " + ex.getMessage());
+            }
+        });
+    }
+
+    // Drops whatever is in flight without starting anything new
+    void cancel() {
+        generation.incrementAndGet();
+        if (pending != null) pending.cancel(true);
+        pending = null;
+    }
+
+    private void publish(long gen, int index, File file, State state, String message) {
+        callbacks.execute(() -> {
+            if (gen == generation.get()) listener.loadStateChanged(index, file, state, message);
+        });
+    }
+}
@@ -0,0 +1,34 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// Login and registration against the users table. Passwords arrive already hashed.
+class UserStore {
+    private final Database db;
+
+    UserStore(Database db) {
+        this.db = db;
+    }
+
+    // The user's id, or -1 if the name/password pair doesn't match
+    int findUser(String username, String passwordHash) throws SQLException {
+        synchronized (db) {
+            PreparedStatement ps = db.prepare("SELECT id FROM users WHERE username=? AND password=?");
+            ps.setString(1, username);
+            ps.setString(2, passwordHash);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt("id") : -1;
+            }
+        }
+    }
+
+    // Throws with a UNIQUE constraint message if the name is taken
+    void register(String username, String passwordHash) throws SQLException {
+        synchronized (db) {
+            PreparedStatement ps = db.prepare("INSERT INTO users (username, password) VALUES (?, ?)");
+            ps.setString(1, username);
+            ps.setString(2, passwordHash);
+            ps.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import javax.swing.JComponent;
+import javax.swing.UIManager;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.function.DoubleConsumer;
+
+// Seek bar that draws the track's waveform, played part in the accent color. Painting only
+// reads the in-memory summary (picking the mipmap level that matches the width) and only
+// walks the clipped columns, so a position update repaints the few pixels the playhead
+// crossed. Until a summary arrives it looks like a thin progress bar.
+class WaveformSeekBar extends JComponent {
+    private final DoubleConsumer seek;
+    private WaveformSummary summary;
+    private double fraction;
+    private int playheadX = -1;
+
+    // seek gets the clicked or dragged position as a fraction of the track
+    WaveformSeekBar(DoubleConsumer seek) {
+        this.seek = seek;
+        setOpaque(true);
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                seekTo(e.getX());
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                seekTo(e.getX());
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+    }
+
+    private void seekTo(int x) {
+        int w = getWidth();
+        if (w <= 0) return;
+        double f = Math.max(0, Math.min(1, (double) x / w));
+        setFraction(f);
+        seek.accept(f);
+    }
+
+    // null shows the plain bar
+    void setWaveform(WaveformSummary summary) {
+        this.summary = summary;
+        repaint();
+    }
+
+    void setPosition(long micros, long lengthMicros) {
+        setFraction(lengthMicros > 0 ? Math.max(0, Math.min(1, (double) micros / lengthMicros)) : 0);
+    }
+
+    private void setFraction(double f) {
+        fraction = f;
+        int x = (int) Math.round(f * getWidth());
+        if (x == playheadX) return;
+        int from = Math.min(x, playheadX), to = Math.max(x, playheadX);
+        playheadX = x;
+        // Only the columns between the old and new playhead change color
+        repaint(Math.max(0, from - 1), 0, to - from + 2, getHeight());
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(200, 40);
+    }
+
+    @Override
+    public void setBounds(int x, int y, int width, int height) {
+        super.setBounds(x, y, width, height);
+        playheadX = (int) Math.round(fraction * width);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        int w = getWidth(), h = getHeight();
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, w, h);
+        g.setColor(getBackground() != null ? getBackground() : UIManager.getColor("Panel.background"));
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        Color played = accent(), unplayed = Color.GRAY;
+        int from = Math.max(0, clip.x), to = Math.min(w, clip.x + clip.width);
+        WaveformSummary s = summary;
+        if (s == null || w <= 0) {
+            int y = h / 2 - 2;
+            g.setColor(unplayed);
+            g.fillRect(from, y, to - from, 4);
+            g.setColor(played);
+            g.fillRect(from, y, Math.max(0, Math.min(to, playheadX) - from), 4);
+            return;
+        }
+        int level = s.levelFor(w);
+        int n = s.buckets(level);
+        int mid = h / 2, half = Math.max(1, h / 2 - 1);
+        Color playedRms = played.darker(), unplayedRms = unplayed.darker();
+        for (int x = from; x < to; x++) {
+            // Buckets under this column; one or two once the level roughly matches the width
+            int b0 = (int) ((long) x * n / w);
+            int b1 = Math.max(b0 + 1, (int) ((long) (x + 1) * n / w));
+            float peak = 0, sumSquares = 0;
+            for (int b = b0; b < b1 && b < n; b++) {
+                peak = Math.max(peak, s.peak(level, b));
+                float r = s.rms(level, b);
+                sumSquares += r * r;
+            }
+            float rms = (float) Math.sqrt(sumSquares / (b1 - b0));
+            boolean isPlayed = x < playheadX;
+            int p = Math.max(1, Math.round(peak * half));
+            g.setColor(isPlayed ? played : unplayed);
+            g.drawLine(x, mid - p, x, mid + p);
+            int r = Math.round(rms * half);
+            if (r > 0) {
+                g.setColor(isPlayed ? playedRms : unplayedRms);
+                g.drawLine(x, mid - r, x, mid + r);
+            }
+        }
+    }
+
+    private static Color accent() {
+        Color c = UIManager.getColor("ProgressBar.foreground");
+        return c != null ? c : new Color(0x3C7FB1);
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.Arrays;
+
+// Peak and RMS overview of a whole track for drawing a waveform. The finest level has
+// BUCKETS columns; each coarser level halves that, like a texture mipmap, so drawing at any
+// width only walks about as many buckets as there are pixels. Values are stored as one
+// unsigned byte each (amplitude on a square-root scale so quiet passages stay visible),
+// which keeps the stored form to 2 bytes per bucket, 4 KB per track.
+final class WaveformSummary {
+    static final int BUCKETS = 2048;
+
+    private final byte[][] peaks; // [level][bucket], level 0 finest
+    private final byte[][] rms;
+
+    private WaveformSummary(byte[] peak0, byte[] rms0) {
+        int levels = 1;
+        for (int n = peak0.length; n > 1; n = (n + 1) / 2) levels++;
+        peaks = new byte[levels][];
+        rms = new byte[levels][];
+        peaks[0] = peak0;
+        rms[0] = rms0;
+        for (int l = 1; l < levels; l++) {
+            byte[] fp = peaks[l - 1], fr = rms[l - 1];
+            int n = (fp.length + 1) / 2;
+            peaks[l] = new byte[n];
+            rms[l] = new byte[n];
+            for (int i = 0; i < n; i++) {
+                int a = 2 * i, b = Math.min(2 * i + 1, fp.length - 1);
+                peaks[l][i] = (byte) Math.max(fp[a] & 0xFF, fp[b] & 0xFF);
+                float ra = level(fr[a]), rb = level(fr[b]);
+                rms[l][i] = encode((float) Math.sqrt((ra * ra + rb * rb) / 2));
+            }
+        }
+    }
+
+    // Level with at least the given number of buckets (the coarsest one that's still enough)
+    int levelFor(int columns) {
+        int l = 0;
+        while (l + 1 < peaks.length && peaks[l + 1].length >= columns) l++;
+        return l;
+    }
+
+    int buckets(int level) {
+        return peaks[level].length;
+    }
+
+    // Amplitudes in [0, 1]
+    float peak(int level, int bucket) {
+        return level(peaks[level][bucket]);
+    }
+
+    float rms(int level, int bucket) {
+        return level(rms[level][bucket]);
+    }
+
+    byte[] toBytes() {
+        byte[] out = Arrays.copyOf(peaks[0], peaks[0].length * 2);
+        System.arraycopy(rms[0], 0, out, peaks[0].length, rms[0].length);
+        return out;
+    }
+
+    static WaveformSummary fromBytes(byte[] data) {
+        int n = data.length / 2;
+        return new WaveformSummary(Arrays.copyOfRange(data, 0, n), Arrays.copyOfRange(data, n, 2 * n));
+    }
+
+    private static float level(byte b) {
+        float v = (b & 0xFF) / 255f;
+        return v * v;
+    }
+
+    private static byte encode(float amplitude) {
+        return (byte) Math.round(Math.sqrt(Math.max(0f, Math.min(1f, amplitude))) * 255);
+    }
+
+    // Collects per-frame peaks and mean squares in order. With a known length the frames go
+    // straight into BUCKETS columns; otherwise into fixed blocks that build() resamples.
+    static final class Builder {
+        private final long framesPerBucket;
+        private float[] peak = new float[BUCKETS];
+        private double[] sumSquares = new double[BUCKETS];
+        private long[] counts = new long[BUCKETS];
+        private int bucket;
+        private long inBucket;
+
+        Builder(long frameLength) {
+            framesPerBucket = frameLength > 0 ? Math.max(1, (frameLength + BUCKETS - 1) / BUCKETS) : 4096;
+        }
+
+        void add(float framePeak, double frameMeanSquare) {
+            if (inBucket == framesPerBucket) {
+                bucket++;
+                inBucket = 0;
+                if (bucket == peak.length) {
+                    peak = Arrays.copyOf(peak, bucket * 2);
+                    sumSquares = Arrays.copyOf(sumSquares, bucket * 2);
+                    counts = Arrays.copyOf(counts, bucket * 2);
+                }
+            }
+            peak[bucket] = Math.max(peak[bucket], framePeak);
+            sumSquares[bucket] += frameMeanSquare;
+            counts[bucket]++;
+            inBucket++;
+        }
+
+        // null if no frames were added
+        WaveformSummary build() {
+            int used = inBucket > 0 ? bucket + 1 : bucket;
+            if (used == 0) return null;
+            byte[] p = new byte[BUCKETS], r = new byte[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                // Source blocks covering column i (more than one when the length was unknown)
+                int from = (int) ((long) i * used / BUCKETS);
+                int to = Math.max(from + 1, (int) ((long) (i + 1) * used / BUCKETS));
+                float pk = 0;
+                double sum = 0;
+                long n = 0;
+                for (int j = from; j < to && j < used; j++) {
+                    pk = Math.max(pk, peak[j]);
+                    sum += sumSquares[j];
+                    n += counts[j];
+                }
+                p[i] = encode(pk);
+                r[i] = encode(n == 0 ? 0f : (float) Math.sqrt(sum / n));
+            }
+            return new WaveformSummary(p, r);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package musicplayer.bench;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Data the benchmarks run against, made fresh at bench time so nothing binary is checked in.
+// Seeded, so every run and every fork sees the same library.
+final class Fixtures {
+    private static final String[] WORDS = {
+        "love", "night", "blue", "river", "fire", "home", "dance", "rain", "heart", "road",
+        "summer", "gold", "ghost", "city", "moon", "wild", "silver", "echo", "storm", "paper",
+    };
+
+    private Fixtures() {}
+
+    // A 16-bit stereo WAV of a quiet sine sweep
+    static File wav(Path dir, String name, float sampleRate, int seconds) throws IOException {
+        AudioFormat format = new AudioFormat(sampleRate, 16, 2, true, false);
+        int frames = (int) (sampleRate * seconds);
+        byte[] pcm = new byte[frames * format.getFrameSize()];
+        double phase = 0;
+        for (int i = 0; i < frames; i++) {
+            phase += 2 * Math.PI * (220 + 440.0 * i / frames) / sampleRate;
+            short s = (short) (Math.sin(phase) * 8000);
+            for (int c = 0; c < 2; c++) {
+                pcm[i * 4 + c * 2] = (byte) s;
+                pcm[i * 4 + c * 2 + 1] = (byte) (s >> 8);
+            }
+        }
+        File f = dir.resolve(name).toFile();
+        try (AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(pcm), format, frames)) {
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, f);
+        }
+        return f;
+    }
+
+    // Paths shaped like a real library: a few hundred artists, a handful of albums each
+    static List<File> library(int tracks, long seed) {
+        Random random = new Random(seed);
+        List<File> files = new ArrayList<>(tracks);
+        for (int i = 0; i < tracks; i++) {
+            int artist = random.nextInt(Math.max(1, tracks / 40));
+            String title = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+            files.add(new File("/music/Artist " + artist + "/Album " + random.nextInt(8)
+                    + "/" + String.format("%02d", i % 20 + 1) + " " + title + " " + i + ".mp3"));
+        }
+        return files;
+    }
+
+    static Path tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix);
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package musicplayer.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+// The player's classes are package-private in the unnamed package, which JMH won't generate
+// benchmarks for and a named package can't import. They're on the same class path though, so
+// they're reached reflectively: look a handle up once into a static final field, where the JIT
+// treats it as a constant, and the call costs the same as a direct one.
+final class Internals {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private Internals() {}
+
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Player class missing from the class path: " + name, e);
+        }
+    }
+
+    static MethodHandle constructor(String className, Class<?>... params) {
+        try {
+            Constructor<?> c = type(className).getDeclaredConstructor(params);
+            c.setAccessible(true);
+            return LOOKUP.unreflectConstructor(c);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(className + " constructor", e);
+        }
+    }
+
+    // Static or instance; an instance method takes the receiver as its first argument
+    static MethodHandle method(String className, String name, Class<?>... params) {
+        try {
+            Method m = type(className).getDeclaredMethod(name, params);
+            m.setAccessible(true);
+            return LOOKUP.unreflect(m);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(className + "." + name, e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package musicplayer.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// PlaylistStore against a throwaway SQLite file, as the app uses it: one shared connection,
+// WAL, cached statements. Each trial starts from an empty database holding one saved list.
+//   rewrite    every row changes (two disjoint lists, alternately), the worst case for the diff
+//   resave     nothing changed, which should write nothing
+//   append100  the list grew by 100 tracks at the end, then shrinks back
+//   load       reading the list back in order
+//   firstPage  reading the first page, what opening the playlist waits for
+//   lastPage   reading the last page through the position cursor
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlaylistBench {
+    private static final int USER = 1;
+    private static final int PAGE_SIZE = 500;
+    private static final MethodHandle NEW_DATABASE = Internals.constructor("Database", String.class);
+    private static final MethodHandle CLOSE_DATABASE = Internals.method("Database", "close");
+    private static final MethodHandle NEW_STORE = Internals.constructor("PlaylistStore", Internals.type("Database"));
+    private static final MethodHandle CREATE = Internals.method("PlaylistStore", "create", int.class, String.class);
+    private static final MethodHandle SAVE = Internals.method("PlaylistStore", "save", int.class, List.class);
+    private static final MethodHandle LOAD = Internals.method("PlaylistStore", "load", int.class);
+    private static final MethodHandle PAGE = Internals.method("PlaylistStore", "page", int.class, long.class, int.class);
+
+    @Param({ "1000", "10000", "100000" })
+    public int rows;
+
+    private Path dir;
+    private Object db;
+    private Object store;
+    private int playlist;
+    private long lastPageAfter;
+    private List<File> saved;
+    private List<File> other;
+    private List<File> appended;
+    private boolean flip;
+
+    @Setup(Level.Trial)
+    public void open() throws Throwable {
+        dir = Fixtures.tempDir("playlist-bench");
+        db = NEW_DATABASE.invoke("jdbc:sqlite:" + dir.resolve("bench.db"));
+        store = NEW_STORE.invoke(db);
+        saved = Fixtures.library(rows, 1);
+        other = Fixtures.library(rows, 2);
+        appended = new ArrayList<>(saved);
+        for (int i = 0; i < 100; i++) appended.add(new File("/music/New/track " + i + ".mp3"));
+        CREATE.invoke(store, USER, "Bench");
+        playlist = 1; // the first in a new database
+        SAVE.invoke(store, playlist, saved);
+        lastPageAfter = (long) (rows - PAGE_SIZE) * 1024; // save() spaces positions 1024 apart
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Throwable {
+        CLOSE_DATABASE.invoke(db);
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public void rewrite() throws Throwable {
+        flip = !flip;
+        SAVE.invoke(store, playlist, flip ? other : saved);
+    }
+
+    @Benchmark
+    public void resave() throws Throwable {
+        SAVE.invoke(store, playlist, saved);
+    }
+
+    @Benchmark
+    public void append100() throws Throwable {
+        flip = !flip;
+        SAVE.invoke(store, playlist, flip ? appended : saved);
+    }
+
+    @Benchmark
+    public Object load() throws Throwable {
+        return LOAD.invoke(store, playlist);
+    }
+
+    @Benchmark
+    public Object firstPage() throws Throwable {
+        return PAGE.invoke(store, playlist, Long.MIN_VALUE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Object lastPage() throws Throwable {
+        return PAGE.invoke(store, playlist, lastPageAfter, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,53 @@
+package musicplayer.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// What the search box costs per keystroke: SearchIndex.search over a generated library.
+// The queries cover a rare word pair, a common word, a miss, and a query too short for a
+// trigram, which falls back to checking every track.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBench {
+    private static final MethodHandle NEW_INDEX = Internals.constructor("SearchIndex");
+    private static final MethodHandle ADD = Internals.method("SearchIndex", "add", File.class, String.class);
+    private static final MethodHandle SEARCH = Internals.method("SearchIndex", "search", String.class);
+
+    @Param({ "10000", "100000" })
+    public int tracks;
+
+    @Param({ "artist 12 river", "love", "no such song", "ab" })
+    public String query;
+
+    private Object index;
+
+    @Setup(Level.Trial)
+    public void build() throws Throwable {
+        index = NEW_INDEX.invoke();
+        for (File f : Fixtures.library(tracks, 1)) ADD.invoke(index, f, "");
+    }
+
+    @Benchmark
+    public Object search() throws Throwable {
+        return (List<?>) SEARCH.invoke(index, query);
+    }
+}
@@ -0,0 +1,79 @@
+package musicplayer.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.ListModel;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Filling the track list model in bulk, as a folder import (addAll into an empty list) and a
+// search or playlist load (setAll over a full one) do. A listener counts the events, standing
+// in for the JList and the player core that receive them.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackListBench {
+    private static final MethodHandle NEW_MODEL = Internals.constructor("TrackListModel");
+    private static final MethodHandle ADD_ALL = Internals.method("TrackListModel", "addAll", Collection.class);
+    private static final MethodHandle SET_ALL = Internals.method("TrackListModel", "setAll", Collection.class);
+
+    @Param({ "1000", "10000", "100000" })
+    public int tracks;
+
+    private List<File> files;
+    private List<File> others;
+    private Object shown;
+    private boolean flip;
+    int events;
+
+    @Setup(Level.Trial)
+    public void create() throws Throwable {
+        files = Fixtures.library(tracks, 1);
+        others = Fixtures.library(tracks, 2);
+        shown = listened(NEW_MODEL.invoke());
+        SET_ALL.invoke(shown, files);
+    }
+
+    @Benchmark
+    public Object addAllToEmpty() throws Throwable {
+        Object model = listened(NEW_MODEL.invoke());
+        ADD_ALL.invoke(model, files);
+        return model;
+    }
+
+    @Benchmark
+    public Object setAllOverFull() throws Throwable {
+        flip = !flip;
+        SET_ALL.invoke(shown, flip ? others : files);
+        return shown;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object listened(Object model) {
+        ((ListModel<File>) model).addListDataListener(new ListDataListener() {
+            public void intervalAdded(ListDataEvent e) { events++; }
+            public void intervalRemoved(ListDataEvent e) { events++; }
+            public void contentsChanged(ListDataEvent e) { events++; }
+        });
+        return model;
+    }
+}
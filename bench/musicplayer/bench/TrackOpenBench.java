@@ -0,0 +1,114 @@
+package musicplayer.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Closeable;
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// What happens between clicking a track and the engine having audio to play: the loader's
+// engine.open(), which decodes the first frames and, when the format changes, opens the line.
+// decodeFirstBuffer is the file side alone (open, fill one line buffer, close) and runs
+// anywhere; openEngine needs an audio output device and fails its setup on machines without one.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackOpenBench {
+    private static final MethodHandle OPEN_MAPPED = Internals.method("PcmSource", "open", File.class);
+    private static final MethodHandle OPEN_STREAM = Internals.constructor("StreamPcmSource", File.class);
+    private static final MethodHandle READ = Internals.method("PcmSource", "read", byte[].class, int.class, int.class);
+    private static final MethodHandle NEW_ENGINE = Internals.constructor("StreamingPlaybackEngine");
+    private static final MethodHandle ENGINE_OPEN = Internals.method("StreamingPlaybackEngine", "open", File.class);
+    private static final MethodHandle ENGINE_CLOSE = Internals.method("StreamingPlaybackEngine", "close");
+
+    // Two generated WAVs, so every call really switches track
+    @State(Scope.Benchmark)
+    public static class Tracks {
+        // Track length; neither open path should depend on it
+        @Param({ "10", "300" })
+        public int seconds;
+
+        Path dir;
+        File[] files;
+        int turn;
+
+        @Setup(Level.Trial)
+        public void create() throws Exception {
+            dir = Fixtures.tempDir("open-bench");
+            files = new File[] {
+                Fixtures.wav(dir, "a.wav", 44100, seconds),
+                Fixtures.wav(dir, "b.wav", 44100, seconds),
+            };
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws Exception {
+            Fixtures.delete(dir);
+        }
+
+        File next() {
+            return files[turn++ & 1];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Decoder {
+        // "mapped" is what PcmSource.open picks for plain WAV; "stream" is the AudioSystem
+        // path every other format takes
+        @Param({ "mapped", "stream" })
+        public String source;
+
+        final byte[] buffer = new byte[44100 / 4 * 4]; // a quarter second, the engine's line buffer
+    }
+
+    @State(Scope.Benchmark)
+    public static class Engine {
+        Object engine;
+
+        // Opening once here takes the first line open out of the measurement, and stops a
+        // machine without audio output before the warmup
+        @Setup(Level.Trial)
+        public void open(Tracks tracks) throws Throwable {
+            engine = NEW_ENGINE.invoke();
+            ENGINE_OPEN.invoke(engine, tracks.next());
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws Throwable {
+            if (engine != null) ENGINE_CLOSE.invoke(engine);
+        }
+    }
+
+    @Benchmark
+    public int decodeFirstBuffer(Tracks tracks, Decoder decoder) throws Throwable {
+        File f = tracks.next();
+        Object src = "stream".equals(decoder.source) ? OPEN_STREAM.invoke(f) : OPEN_MAPPED.invoke(f);
+        try {
+            return (int) READ.invoke(src, decoder.buffer, 0, decoder.buffer.length);
+        } finally {
+            ((Closeable) src).close();
+        }
+    }
+
+    @Benchmark
+    public Object openEngine(Tracks tracks, Engine engine) throws Throwable {
+        ENGINE_OPEN.invoke(engine.engine, tracks.next());
+        return engine.engine;
+    }
+}
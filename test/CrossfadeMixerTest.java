@@ -0,0 +1,114 @@
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// The gains follow the curve frame by frame, the fade spans calls through pos, and once it's
+// over the incoming track comes through unchanged: bit for bit up to 24-bit samples, which a
+// float holds exactly, and to float precision at 32.
+class CrossfadeMixerTest {
+    private static final AudioFormat STEREO_16 = new AudioFormat(44100, 16, 2, true, false);
+    private static final float STEP_16 = 1f / 32768;
+
+    @Test
+    void linearGainsAddUpToOne() {
+        int frames = 400;
+        byte[] in = constant(STEREO_16, frames, 0.5f), out = constant(STEREO_16, frames, -0.25f);
+        new CrossfadeMixer(in.length).mix(in, out, in.length, STEREO_16, 0, frames, CrossfadeMixer.Curve.LINEAR);
+        for (int f = 0; f < frames; f++) {
+            double t = (f + 0.5) / frames;
+            float expected = (float) (0.5 * t - 0.25 * (1 - t));
+            for (int c = 0; c < 2; c++) assertEquals(expected, sample(in, STEREO_16, f, c), STEP_16, "frame " + f);
+        }
+    }
+
+    @Test
+    void equalPowerKeepsLoudness() {
+        int frames = 400;
+        byte[] silence = constant(STEREO_16, frames, 0);
+        byte[] in = constant(STEREO_16, frames, 0.5f), out = constant(STEREO_16, frames, 0.5f);
+        CrossfadeMixer mixer = new CrossfadeMixer(in.length);
+        mixer.mix(in, silence.clone(), in.length, STEREO_16, 0, frames, CrossfadeMixer.Curve.EQUAL_POWER);
+        byte[] fadingOut = silence.clone();
+        mixer.mix(fadingOut, out, in.length, STEREO_16, 0, frames, CrossfadeMixer.Curve.EQUAL_POWER);
+        for (int f = 0; f < frames; f++) {
+            double gainIn = sample(in, STEREO_16, f, 0) / 0.5, gainOut = sample(fadingOut, STEREO_16, f, 0) / 0.5;
+            assertEquals(1.0, gainIn * gainIn + gainOut * gainOut, 1e-3, "frame " + f);
+        }
+    }
+
+    // Mixing a fade in two halves gives the same result as in one go
+    @Test
+    void fadeContinuesAcrossCalls() {
+        int frames = 300;
+        byte[] in = noise(STEREO_16, frames, 1), out = noise(STEREO_16, frames, 2);
+        byte[] whole = in.clone();
+        CrossfadeMixer mixer = new CrossfadeMixer(in.length);
+        mixer.mix(whole, out, in.length, STEREO_16, 0, frames, CrossfadeMixer.Curve.EQUAL_POWER);
+
+        int half = frames / 2 * STEREO_16.getFrameSize();
+        byte[] first = Arrays.copyOfRange(in, 0, half), second = Arrays.copyOfRange(in, half, in.length);
+        mixer.mix(first, Arrays.copyOfRange(out, 0, half), half, STEREO_16, 0, frames,
+                CrossfadeMixer.Curve.EQUAL_POWER);
+        mixer.mix(second, Arrays.copyOfRange(out, half, out.length), second.length, STEREO_16, frames / 2,
+                frames, CrossfadeMixer.Curve.EQUAL_POWER);
+        byte[] split = new byte[in.length];
+        System.arraycopy(first, 0, split, 0, half);
+        System.arraycopy(second, 0, split, half, second.length);
+        assertArrayEquals(whole, split);
+    }
+
+    @Test
+    void incomingPassesThroughOnceTheFadeIsOver() {
+        AudioFormat[] formats = {
+                STEREO_16,
+                new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 22050, 8, 1, 1, 22050, false),
+                new AudioFormat(48000, 24, 2, true, true),
+        };
+        for (AudioFormat format : formats) {
+            int frames = 256;
+            byte[] in = noise(format, frames, 3), out = noise(format, frames, 4);
+            byte[] mixed = in.clone(), outBefore = out.clone();
+            new CrossfadeMixer(in.length).mix(mixed, out, in.length, format, 1000, 1000, CrossfadeMixer.Curve.LINEAR);
+            assertArrayEquals(in, mixed, format.toString());
+            assertArrayEquals(outBefore, out, "the outgoing buffer is only read: " + format);
+        }
+    }
+
+    @Test
+    void incoming32BitPassesThroughToFloatPrecision() {
+        AudioFormat format = new AudioFormat(48000, 32, 1, true, false);
+        int frames = 256;
+        byte[] in = noise(format, frames, 5), mixed = in.clone();
+        new CrossfadeMixer(in.length).mix(mixed, noise(format, frames, 6), in.length, format, 1000, 1000,
+                CrossfadeMixer.Curve.LINEAR);
+        for (int f = 0; f < frames; f++) {
+            assertEquals(sample(in, format, f, 0), sample(mixed, format, f, 0), 0x1p-24f, "frame " + f);
+        }
+    }
+
+    private static byte[] constant(AudioFormat format, int frames, float value) {
+        byte[] b = new byte[frames * format.getFrameSize()];
+        int bytes = format.getSampleSizeInBits() / 8;
+        for (int i = 0; i < b.length; i += bytes) {
+            PcmSamples.put(b, i, bytes, format.isBigEndian(), PcmSamples.isUnsigned(format), value);
+        }
+        return b;
+    }
+
+    private static byte[] noise(AudioFormat format, int frames, long seed) {
+        byte[] b = new byte[frames * format.getFrameSize()];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private static float sample(byte[] b, AudioFormat format, int frame, int channel) {
+        int bytes = format.getSampleSizeInBits() / 8;
+        return PcmSamples.get(b, frame * format.getFrameSize() + channel * bytes, bytes, format.isBigEndian(),
+                PcmSamples.isUnsigned(format));
+    }
+}
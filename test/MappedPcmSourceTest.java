@@ -0,0 +1,117 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// The mapped reader must hand the engine exactly what AudioSystem's decoders would, for
+// every format it claims, and seek to the same frames.
+class MappedPcmSourceTest {
+    private static final int FRAMES = 10_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void wav16BitStereoMatchesStream() throws Exception {
+        assertSameAsStream(write("a.wav", signed(16, 2, false), AudioFileFormat.Type.WAVE));
+    }
+
+    @Test
+    void wav8BitMonoMatchesStream() throws Exception {
+        AudioFormat unsigned = new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 22050, 8, 1, 1, 22050, false);
+        assertSameAsStream(write("b.wav", unsigned, AudioFileFormat.Type.WAVE));
+    }
+
+    @Test
+    void wav24BitStereoMatchesStream() throws Exception {
+        assertSameAsStream(write("c.wav", signed(24, 2, false), AudioFileFormat.Type.WAVE));
+    }
+
+    @Test
+    void aiff16BitStereoMatchesStream() throws Exception {
+        assertSameAsStream(write("d.aiff", signed(16, 2, true), AudioFileFormat.Type.AIFF));
+    }
+
+    @Test
+    void leavesOtherFilesToTheStreamReader() throws Exception {
+        File text = dir.resolve("notes.wav").toFile();
+        Files.writeString(text.toPath(), "not a RIFF file at all");
+        assertNull(MappedPcmSource.tryOpen(text));
+    }
+
+    @Test
+    void seekPastTheEndReadsNothing() throws Exception {
+        File f = write("e.wav", signed(16, 2, false), AudioFileFormat.Type.WAVE);
+        try (PcmSource mapped = MappedPcmSource.tryOpen(f)) {
+            assertNotNull(mapped);
+            mapped.seekFrame(FRAMES + 100);
+            assertEquals(-1, mapped.read(new byte[4096], 0, 4096));
+        }
+    }
+
+    private void assertSameAsStream(File f) throws Exception {
+        try (PcmSource mapped = MappedPcmSource.tryOpen(f); PcmSource stream = new StreamPcmSource(f)) {
+            assertNotNull(mapped, "should be mapped: " + f.getName());
+            assertInstanceOf(MappedPcmSource.class, PcmSource.open(f));
+            AudioFormat m = mapped.getFormat(), s = stream.getFormat();
+            assertEquals(s.getEncoding(), m.getEncoding());
+            assertEquals(s.getSampleRate(), m.getSampleRate());
+            assertEquals(s.getSampleSizeInBits(), m.getSampleSizeInBits());
+            assertEquals(s.getChannels(), m.getChannels());
+            assertEquals(s.isBigEndian(), m.isBigEndian());
+            assertEquals(stream.getFrameLength(), mapped.getFrameLength());
+
+            assertArrayEquals(readAll(stream), readAll(mapped));
+
+            // Backwards (the stream reopens) and forwards (it skips), landing mid-file
+            for (long frame : new long[]{FRAMES / 2, 123, FRAMES - 7, 0}) {
+                stream.seekFrame(frame);
+                mapped.seekFrame(frame);
+                assertArrayEquals(readAll(stream), readAll(mapped), "after seeking to " + frame);
+            }
+        }
+    }
+
+    // An odd buffer size, so reads that end mid-frame are rounded down
+    private static byte[] readAll(PcmSource source) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1001];
+        int n;
+        while ((n = source.read(buf, 0, buf.length)) >= 0) {
+            assertEquals(0, n % source.getFormat().getFrameSize());
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static AudioFormat signed(int bits, int channels, boolean bigEndian) {
+        return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100, bits, channels,
+                channels * bits / 8, 44100, bigEndian);
+    }
+
+    private File write(String name, AudioFormat format, AudioFileFormat.Type type)
+            throws IOException, UnsupportedAudioFileException {
+        byte[] data = new byte[FRAMES * format.getFrameSize()];
+        new Random(name.hashCode()).nextBytes(data);
+        File f = dir.resolve(name).toFile();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data), format, FRAMES), type, f);
+        return f;
+    }
+}
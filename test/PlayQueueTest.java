@@ -0,0 +1,174 @@
+import org.junit.jupiter.api.Test;
+
+import javax.swing.event.ListDataEvent;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Shuffle deals every row once per cycle, history walks back and forward over what played,
+// and list edits renumber both instead of starting over. The shuffle is random, so these
+// check properties over several cycles rather than a fixed order.
+class PlayQueueTest {
+
+    @Test
+    void inOrderWrapsBothWays() {
+        PlayQueue q = new PlayQueue(3);
+        assertEquals(List.of(0, 1, 2, 0), next(q, 4));
+        assertEquals(2, q.previous());
+        assertEquals(1, q.previous());
+    }
+
+    @Test
+    void shufflePlaysEveryRowOncePerCycle() {
+        int rows = 50;
+        PlayQueue q = new PlayQueue(rows);
+        q.setShuffle(true);
+        int last = -1;
+        for (int cycle = 0; cycle < 20; cycle++) {
+            List<Integer> played = next(q, rows);
+            assertEquals(rows, new HashSet<>(played).size(), "cycle " + cycle + ": " + played);
+            assertNotEquals(last, played.get(0), "a cycle opens with the track that just ended");
+            last = played.get(rows - 1);
+        }
+    }
+
+    @Test
+    void peekNextIsWhatNextReturns() {
+        PlayQueue q = new PlayQueue(20);
+        q.setShuffle(true);
+        for (int i = 0; i < 60; i++) {
+            int peeked = q.peekNext();
+            assertEquals(peeked, q.peekNext());
+            assertEquals(peeked, q.next());
+        }
+    }
+
+    @Test
+    void previousWalksBackAndNextRetraces() {
+        int rows = 30;
+        PlayQueue q = new PlayQueue(rows);
+        q.setShuffle(true);
+        List<Integer> played = next(q, 10);
+        for (int i = 8; i >= 5; i--) assertEquals(played.get(i), q.previous());
+        assertEquals(played.subList(6, 10), next(q, 4));
+        // The retraced rows aren't dealt again: the rest of the cycle is the other 20
+        Set<Integer> cycle = new HashSet<>(played);
+        cycle.addAll(next(q, rows - 10));
+        assertEquals(rows, cycle.size());
+    }
+
+    @Test
+    void jumpedToRowCountsAsPlayed() {
+        int rows = 10;
+        PlayQueue q = new PlayQueue(rows);
+        q.setShuffle(true);
+        q.jumpTo(7);
+        List<Integer> rest = next(q, rows - 1);
+        assertFalse(rest.contains(7), rest.toString());
+        assertEquals(rows - 1, new HashSet<>(rest).size());
+        assertEquals(7, back(q, rows - 1));
+    }
+
+    @Test
+    void removedRowsLeaveCycleAndHistory() {
+        int rows = 20;
+        PlayQueue q = new PlayQueue(rows);
+        q.setShuffle(true);
+        List<Integer> played = next(q, 8);
+        int current = played.get(7);
+        // Remove three rows that aren't the current one
+        int first = current >= 3 ? 0 : current + 1;
+        q.intervalRemoved(new ListDataEvent(this, ListDataEvent.INTERVAL_REMOVED, first, first + 2));
+        List<Integer> renumbered = new ArrayList<>();
+        for (int row : played) {
+            if (row >= first && row <= first + 2) continue;
+            renumbered.add(row > first + 2 ? row - 3 : row);
+        }
+        int now = renumbered.get(renumbered.size() - 1);
+        assertEquals(now, q.current());
+
+        Set<Integer> cycle = new HashSet<>(renumbered);
+        List<Integer> rest = next(q, rows - 3 - renumbered.size());
+        for (int row : rest) assertTrue(row >= 0 && row < rows - 3, rest.toString());
+        cycle.addAll(rest);
+        assertEquals(rows - 3, cycle.size(), "every remaining row plays once");
+
+        // History: back through the rest, then the renumbered rows that were played before
+        for (int i = rest.size() - 2; i >= 0; i--) assertEquals(rest.get(i), q.previous());
+        assertEquals(now, q.previous());
+        assertEquals(renumbered.get(renumbered.size() - 2), q.previous());
+    }
+
+    @Test
+    void addedRowsComeUpThisCycle() {
+        PlayQueue q = new PlayQueue(10);
+        q.setShuffle(true);
+        List<Integer> played = next(q, 5);
+        q.intervalAdded(new ListDataEvent(this, ListDataEvent.INTERVAL_ADDED, 0, 4));
+        Set<Integer> cycle = new HashSet<>();
+        for (int row : played) cycle.add(row + 5);
+        assertEquals(played.get(4) + 5, q.current());
+        cycle.addAll(next(q, 10));
+        assertEquals(15, cycle.size());
+    }
+
+    @Test
+    void removingTheCurrentRowResumesAfterIt() {
+        PlayQueue q = new PlayQueue(5);
+        q.jumpTo(2);
+        q.intervalRemoved(new ListDataEvent(this, ListDataEvent.INTERVAL_REMOVED, 2, 2));
+        assertEquals(-1, q.current());
+        assertEquals(2, q.next()); // what was row 3
+        assertEquals(3, q.next());
+    }
+
+    // Dragging rows mid-cycle keeps what has played: no repeats, and history follows the rows
+    @Test
+    void movedRowsKeepTheirPlaceInTheCycle() {
+        int rows = 20;
+        PlayQueue q = new PlayQueue(rows);
+        q.setShuffle(true);
+        List<Integer> played = next(q, 8);
+        int[][] moves = {{played.get(2), rows - 1}, {0, 10}, {15, played.get(7)}};
+        for (int[] m : moves) {
+            q.moved(m[0], m[1]);
+            played.replaceAll(row -> moved(row, m[0], m[1]));
+        }
+        assertEquals(played.get(7), q.current());
+
+        Set<Integer> cycle = new HashSet<>(played);
+        List<Integer> rest = next(q, rows - played.size());
+        for (int row : rest) assertFalse(played.contains(row), "replayed " + row + ": " + rest);
+        cycle.addAll(rest);
+        assertEquals(rows, cycle.size());
+
+        assertEquals(played.get(7), back(q, rest.size()));
+        assertEquals(played.get(6), q.previous());
+    }
+
+    private static int moved(int row, int from, int to) {
+        if (row == from) return to;
+        if (from < to && row > from && row <= to) return row - 1;
+        if (from > to && row >= to && row < from) return row + 1;
+        return row;
+    }
+
+    private static List<Integer> next(PlayQueue q, int count) {
+        List<Integer> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) rows.add(q.next());
+        return rows;
+    }
+
+    // previous() count times; the row it ends on
+    private static int back(PlayQueue q, int count) {
+        int row = -1;
+        for (int i = 0; i < count; i++) row = q.previous();
+        return row;
+    }
+}
@@ -0,0 +1,150 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// PlaylistWriter.positions(): the rows come out in order, a longest increasing run of stored
+// positions is left alone, and nothing goes past the read cursor until the list is complete.
+class PlaylistWriterTest {
+    private static final long GAP = PlaylistWriter.GAP;
+
+    private long nextId = 1;
+
+    @Test
+    void unchangedRowsKeepTheirPositions() {
+        List<PlaylistStore.Entry> rows = stored(0, GAP, 2 * GAP, 3 * GAP);
+        assertArrayEquals(new long[]{0, GAP, 2 * GAP, 3 * GAP}, PlaylistWriter.positions(rows, true, 3 * GAP));
+    }
+
+    @Test
+    void insertedRowTakesANumberFromTheGap() {
+        List<PlaylistStore.Entry> rows = stored(0, GAP, 2 * GAP);
+        rows.add(2, added());
+        long[] p = PlaylistWriter.positions(rows, true, 2 * GAP);
+        assertEquals(3, unchanged(rows, p));
+        assertTrue(p[2] > GAP && p[2] < 2 * GAP, "between its neighbours: " + p[2]);
+    }
+
+    @Test
+    void appendedRowsGoAGapApart() {
+        List<PlaylistStore.Entry> rows = stored(0, GAP);
+        rows.add(added());
+        rows.add(added());
+        assertArrayEquals(new long[]{0, GAP, 2 * GAP, 3 * GAP}, PlaylistWriter.positions(rows, true, GAP));
+    }
+
+    @Test
+    void rowMovedToTheTopIsTheOnlyOneRenumbered() {
+        List<PlaylistStore.Entry> rows = stored(0, GAP, 2 * GAP, 3 * GAP);
+        rows.add(0, rows.remove(3));
+        long[] p = PlaylistWriter.positions(rows, true, 3 * GAP);
+        assertEquals(3, unchanged(rows, p));
+        assertTrue(p[0] < 0, "before the first kept row: " + p[0]);
+        assertIncreasing(p);
+    }
+
+    @Test
+    void narrowGapGivesUpTheRowAfterIt() {
+        List<PlaylistStore.Entry> rows = stored(0, 1, 2);
+        for (int i = 0; i < 3; i++) rows.add(1, added());
+        long[] p = PlaylistWriter.positions(rows, true, 2);
+        assertIncreasing(p);
+        assertEquals(0, p[0]);
+        assertEquals(1, unchanged(rows, p), "neither 1 nor 2 leaves room for four rows after 0");
+    }
+
+    @Test
+    void partlyReadListStaysAtOrBelowTheCursor() {
+        List<PlaylistStore.Entry> rows = stored(0, GAP);
+        rows.add(1, added());
+        long[] p = PlaylistWriter.positions(rows, false, GAP);
+        assertNotNull(p);
+        assertIncreasing(p);
+        assertEquals(2, unchanged(rows, p));
+
+        // Rows after the last one read have to wait until the next page is in
+        rows.add(added());
+        assertNull(PlaylistWriter.positions(rows, false, GAP));
+    }
+
+    // Shuffled stored rows with new ones mixed in: always in order, never past the cursor,
+    // and as many rows kept as the longest increasing run when the gaps are wide
+    @Test
+    void randomEditsStayInOrder() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            int n = 1 + random.nextInt(40);
+            long[] stored = new long[n];
+            for (int i = 0; i < n; i++) stored[i] = i * GAP;
+            List<PlaylistStore.Entry> rows = stored(stored);
+            for (int swaps = random.nextInt(4); swaps > 0; swaps--) {
+                Collections.swap(rows, random.nextInt(n), random.nextInt(n));
+            }
+            for (int adds = random.nextInt(4); adds > 0; adds--) rows.add(random.nextInt(rows.size() + 1), added());
+            boolean complete = random.nextBoolean();
+            long cursor = (n - 1) * GAP;
+
+            long[] p = PlaylistWriter.positions(rows, complete, cursor);
+            if (p == null) {
+                assertFalse(complete, "only a partly read list can be too tight");
+                continue;
+            }
+            assertIncreasing(p);
+            if (!complete) {
+                for (long position : p) assertTrue(position <= cursor, "past the cursor: " + position);
+            } else {
+                assertEquals(longestIncreasing(rows), unchanged(rows, p), "round " + round);
+            }
+        }
+    }
+
+    private List<PlaylistStore.Entry> stored(long... positions) {
+        List<PlaylistStore.Entry> rows = new ArrayList<>();
+        for (long position : positions) rows.add(new PlaylistStore.Entry(nextId++, position, "/music/" + nextId + ".wav"));
+        return rows;
+    }
+
+    private static PlaylistStore.Entry added() {
+        return new PlaylistStore.Entry(0, 0, "/music/new.wav");
+    }
+
+    private static int unchanged(List<PlaylistStore.Entry> rows, long[] positions) {
+        int n = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i).id != 0 && rows.get(i).position == positions[i]) n++;
+        }
+        return n;
+    }
+
+    private static void assertIncreasing(long[] positions) {
+        for (int i = 1; i < positions.length; i++) {
+            assertTrue(positions[i - 1] < positions[i], "row " + i + " out of order");
+        }
+    }
+
+    // Quadratic, to check the writer's n log n one
+    private static int longestIncreasing(List<PlaylistStore.Entry> rows) {
+        int n = rows.size(), best = 0;
+        int[] length = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (rows.get(i).id == 0) continue;
+            length[i] = 1;
+            for (int j = 0; j < i; j++) {
+                if (rows.get(j).id != 0 && rows.get(j).position < rows.get(i).position) {
+                    length[i] = Math.max(length[i], length[j] + 1);
+                }
+            }
+            best = Math.max(best, length[i]);
+        }
+        return best;
+    }
+}
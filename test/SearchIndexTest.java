@@ -0,0 +1,52 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// A file stays searchable as long as any row lists it, and re-indexing its tags doesn't
+// change how many rows that is.
+class SearchIndexTest {
+    private final File song = new File("/music/Artist - Song.wav");
+
+    @Test
+    void fileListedTwiceStaysUntilBothRowsGo() {
+        SearchIndex index = new SearchIndex();
+        index.add(song, "");
+        index.add(song, "");
+        assertEquals(List.of(song), index.search("song"));
+        index.remove(song);
+        assertEquals(List.of(song), index.search("song"));
+        index.remove(song);
+        assertEquals(List.of(), index.search("song"));
+    }
+
+    @Test
+    void updateReindexesWithoutAddingARow() {
+        SearchIndex index = new SearchIndex();
+        index.add(song, "");
+        index.update(song, "jazz");
+        index.update(song, "blues");
+        assertEquals(List.of(), index.search("jazz"));
+        assertEquals(List.of(song), index.search("blues"));
+        index.remove(song);
+        assertEquals(List.of(), index.search("song"));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void rowsCarryOverToANewPath() {
+        SearchIndex index = new SearchIndex();
+        File moved = new File("/elsewhere/Artist - Song.wav");
+        for (int i = 0; i < 3; i++) index.add(song, "");
+        index.remove(song, 3);
+        index.add(moved, "", 3);
+        assertEquals(List.of(moved), index.search("song"));
+        index.remove(moved);
+        index.remove(moved);
+        assertEquals(List.of(moved), index.search("song"));
+        index.remove(moved);
+        assertEquals(0, index.size());
+    }
+}